@@ -0,0 +1,116 @@
+package document;
+
+/*
+ * IMPORTS
+ * package org.openjdk.jmh: Used to define benchmarks
+ * packages java.io, java.nio: For I/O operations
+ * java.util.concurrent.TimeUnit: Units benchmark results are reported in
+ */
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * RESPONSIBILITIES
+ * - Benchmarks building a trie and searching it exactly and with fuzzy matching
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Duser.home=target/jmh-home"})
+public class MatcherBenchmark
+{
+    // Size of the synthetic document, and of the vocabulary it is drawn from
+    @Param({"2000", "20000"})
+    private int wordsPerDocument;
+
+    @Param({"5000"})
+    private int vocabularySize;
+
+    // Maximum distance for fuzzy matching; 0 runs the exact search
+    @Param({"0", "1", "2"})
+    private int maxDistance;
+
+    // Whether distances are computed bit-parallel or with rows
+    @Param({"true", "false"})
+    private boolean bitParallel;
+
+    // Whether tries are built with a deletion index for fuzzy searches
+    @Param({"false", "true"})
+    private boolean deletionIndex;
+
+    @Param({"42"})
+    private long seed;
+
+    private Path dir;
+    private Document doc;
+    private DocumentMatcher docMatcher;
+    private String[] queries;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        SyntheticCorpus corpus = new SyntheticCorpus(this.seed, this.vocabularySize);
+
+        this.dir = Files.createTempDirectory("legaldocs-bench");
+        Path file = this.dir.resolve("document.txt");
+
+        SyntheticCorpus.writeTxt(file, corpus.words(this.wordsPerDocument));
+
+        DistanceKernel.setBitParallel(this.bitParallel);
+        DeletionIndex.setBuilt(this.deletionIndex);
+
+        this.doc = new Document(file.toFile());
+        this.docMatcher = new DocumentMatcher(DocumentMatcher.buildTrie(this.doc));
+        this.queries = corpus.queries(64, 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists(this.dir.resolve("document.txt"));
+        Files.deleteIfExists(this.dir);
+    }
+
+    /* Trie build from the document file, including text extraction and tokenising */
+    @Benchmark
+    public CompactTrie buildTrie()
+    {
+        return DocumentMatcher.buildTrie(this.doc);
+    }
+
+    /* Exact lookups of every query */
+    @Benchmark
+    public void contains(Blackhole bh)
+    {
+        for (String query : this.queries)
+        {
+            bh.consume(this.docMatcher.contains(query));
+        }
+    }
+
+    /* Fuzzy matching of every query, one traversal per query */
+    @Benchmark
+    public void matches(Blackhole bh)
+    {
+        for (String query : this.queries)
+        {
+            bh.consume(this.docMatcher.matches(query, this.maxDistance));
+        }
+    }
+
+    /* Fuzzy matching of all queries in a single batched traversal */
+    @Benchmark
+    public boolean[] matchesAll()
+    {
+        return this.docMatcher.matchesAll(this.queries, this.maxDistance);
+    }
+}
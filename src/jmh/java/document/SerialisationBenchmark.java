@@ -0,0 +1,143 @@
+package document;
+
+/*
+ * IMPORTS
+ * package legal: For classes representing cases, clients and courts
+ * package org.nustaq.serialization: Serialisation used for the document list
+ * package org.openjdk.jmh: Used to define benchmarks
+ * packages java.io, java.nio: For I/O operations
+ * package java.util: Used for collections and dates
+ * java.util.concurrent.TimeUnit: Units benchmark results are reported in
+ */
+
+import legal.LCase;
+import legal.LClient;
+import legal.LCourt;
+import org.nustaq.serialization.FSTObjectInput;
+import org.nustaq.serialization.FSTObjectOutput;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * RESPONSIBILITIES
+ * - Benchmarks writing and reading serialised tries and the serialised document list
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Duser.home=target/jmh-home",
+        // FST needs reflective access to JDK classes on Java 16 and later
+        "--add-opens=java.base/java.lang=ALL-UNNAMED", "--add-opens=java.base/java.util=ALL-UNNAMED",
+        "--add-opens=java.base/java.io=ALL-UNNAMED", "--add-opens=java.base/java.math=ALL-UNNAMED",
+        "--add-opens=java.base/java.net=ALL-UNNAMED", "--add-opens=java.base/java.text=ALL-UNNAMED",
+        "--add-opens=java.base/java.util.concurrent=ALL-UNNAMED", "--add-opens=java.sql/java.sql=ALL-UNNAMED"})
+public class SerialisationBenchmark
+{
+    @Param({"2000", "20000"})
+    private int wordsPerDocument;
+
+    @Param({"5000"})
+    private int vocabularySize;
+
+    // Number of documents in the serialised document list
+    @Param({"1000"})
+    private int documentCount;
+
+    @Param({"42"})
+    private long seed;
+
+    private Path dir;
+    private Document doc;
+    private CompactTrie trie;
+    private List<Document> docs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        SyntheticCorpus corpus = new SyntheticCorpus(this.seed, this.vocabularySize);
+
+        this.dir = Files.createTempDirectory("legaldocs-bench");
+        Path file = this.dir.resolve("document.txt");
+
+        SyntheticCorpus.writeTxt(file, corpus.words(this.wordsPerDocument));
+
+        this.doc = new Document(file.toFile());
+        this.trie = DocumentMatcher.buildTrie(this.doc);
+
+        // Serialised trie read by the openTrie benchmark
+        DocumentMatcher.serialiseTrieOf(this.doc);
+
+        // Document list like the one DocumentManager saves, with a case, client and court per 10 documents
+        this.docs = new ArrayList<>(this.documentCount);
+        LCase lCase = null;
+
+        for (int i = 0; i < this.documentCount; ++i)
+        {
+            if (i % 10 == 0)
+            {
+                lCase = new LCase("Case " + i, new LCourt("Court " + i), new LClient("Client " + i), new Date(i * 86400000L));
+            }
+
+            this.docs.add(new Document(file.toFile(), "Document " + i, lCase));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        DocumentMatcher.deleteSerialisedTrie(this.doc);
+
+        Files.deleteIfExists(this.dir.resolve("trie.bin"));
+        Files.deleteIfExists(this.dir.resolve("document.txt"));
+        Files.deleteIfExists(this.dir);
+    }
+
+    /* Writes a built trie to a file in the binary trie format */
+    @Benchmark
+    public void writeTrie() throws IOException
+    {
+        try (FileChannel out = FileChannel.open(this.dir.resolve("trie.bin"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            this.trie.writeTo(out);
+        }
+    }
+
+    /* Opens the serialised trie of a document, including the up-to-date checks done before every search */
+    @Benchmark
+    public CompactTrie openTrie()
+    {
+        return DocumentMatcher.deserialiseTrieOf(this.doc);
+    }
+
+    /* Writes the document list with FST and reads it back, as done when closing and starting the application */
+    @Benchmark
+    public Object roundTripDocuments() throws IOException, ClassNotFoundException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (FSTObjectOutput outSer = new FSTObjectOutput(bytes))
+        {
+            outSer.writeObject(this.docs);
+        }
+
+        try (FSTObjectInput inSer = new FSTObjectInput(new ByteArrayInputStream(bytes.toByteArray())))
+        {
+            return inSer.readObject();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package document;
+
+/*
+ * IMPORTS
+ * package org.apache.pdfbox: Used to write synthetic PDF files
+ * packages java.io, java.nio: For I/O operations
+ * package java.util: Used for collections and random number generation
+ */
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * RESPONSIBILITIES
+ * - Generates reproducible synthetic documents and queries for benchmarks
+ * - The same seed always gives the same words, files and queries
+ */
+
+final class SyntheticCorpus
+{
+    // Words typical of legal documents, mixed with random words so tries have a realistic shape
+    private static final String[] LEGAL_WORDS = {"plaintiff", "defendant", "court", "claim", "contract", "breach",
+            "damages", "agreement", "party", "parties", "notice", "force", "majeure", "event", "clause", "liability",
+            "negligence", "judgment", "appeal", "evidence", "witness", "exhibit", "hearing", "motion", "order",
+            "counsel", "jurisdiction", "statute", "section", "schedule", "termination", "indemnity", "warranty"};
+
+    // Words per line of generated PDF pages, and lines per page
+    private static final int PDF_WORDS_PER_LINE = 12;
+    private static final int PDF_LINES_PER_PAGE = 45;
+
+    private final Random random;
+    private final List<String> vocabulary;
+
+    SyntheticCorpus(long seed, int vocabularySize)
+    {
+        this.random = new Random(seed);
+        this.vocabulary = new ArrayList<>(vocabularySize);
+
+        for (int i = 0; i < vocabularySize; ++i)
+        {
+            this.vocabulary.add((i < LEGAL_WORDS.length) ? LEGAL_WORDS[i] : this.randomWord());
+        }
+    }
+
+    /* Returns a random lowercase word of 3 to 12 letters */
+    private String randomWord()
+    {
+        int length = 3 + this.random.nextInt(10);
+        StringBuilder word = new StringBuilder(length);
+
+        for (int i = 0; i < length; ++i)
+        {
+            word.append((char) ('a' + this.random.nextInt(26)));
+        }
+
+        return word.toString();
+    }
+
+    /* Returns a list of words drawn from the vocabulary, with occasional punctuation like real text */
+    List<String> words(int count)
+    {
+        List<String> words = new ArrayList<>(count);
+
+        for (int i = 0; i < count; ++i)
+        {
+            String word = this.vocabulary.get(this.random.nextInt(this.vocabulary.size()));
+
+            words.add((this.random.nextInt(10) == 0) ? word + "," : word);
+        }
+
+        return words;
+    }
+
+    /*
+     * Returns queries drawn from the vocabulary, each with up to maxTypos random substitutions
+     * Roughly half of the queries are two words long, like the longest queries the search accepts
+     */
+    String[] queries(int count, int maxTypos)
+    {
+        String[] queries = new String[count];
+
+        for (int i = 0; i < count; ++i)
+        {
+            char[] query = this.vocabulary.get(this.random.nextInt(this.vocabulary.size())).toCharArray();
+
+            for (int typos = this.random.nextInt(maxTypos + 1); typos > 0; --typos)
+            {
+                query[this.random.nextInt(query.length)] = (char) ('a' + this.random.nextInt(26));
+            }
+
+            queries[i] = new String(query);
+
+            if (this.random.nextBoolean())
+            {
+                queries[i] += " " + this.vocabulary.get(this.random.nextInt(this.vocabulary.size()));
+            }
+        }
+
+        return queries;
+    }
+
+    /* Writes words to a TXT file */
+    static void writeTxt(Path path, List<String> words) throws IOException
+    {
+        Files.writeString(path, String.join(" ", words), StandardCharsets.UTF_8);
+    }
+
+    /* Writes words to a PDF file, laid out in lines and pages */
+    static void writePdf(Path path, List<String> words) throws IOException
+    {
+        try (PDDocument pdf = new PDDocument())
+        {
+            int wordsPerPage = PDF_WORDS_PER_LINE * PDF_LINES_PER_PAGE;
+
+            for (int pageFrom = 0; pageFrom < words.size(); pageFrom += wordsPerPage)
+            {
+                PDPage page = new PDPage();
+                pdf.addPage(page);
+
+                try (PDPageContentStream content = new PDPageContentStream(pdf, page))
+                {
+                    content.setFont(PDType1Font.HELVETICA, 10);
+                    content.setLeading(14);
+                    content.beginText();
+                    content.newLineAtOffset(40, 750);
+
+                    int pageTo = Math.min(words.size(), pageFrom + wordsPerPage);
+
+                    for (int lineFrom = pageFrom; lineFrom < pageTo; lineFrom += PDF_WORDS_PER_LINE)
+                    {
+                        content.showText(String.join(" ", words.subList(lineFrom, Math.min(pageTo, lineFrom + PDF_WORDS_PER_LINE))));
+                        content.newLine();
+                    }
+
+                    content.endText();
+                }
+            }
+
+            pdf.save(path.toFile());
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package document;
+
+/*
+ * IMPORTS
+ * package org.openjdk.jmh: Used to define benchmarks
+ * packages java.io, java.nio: For I/O operations
+ * package java.util: Used for collections, and java.util.Scanner to split text into words as documents once did
+ * java.util.concurrent.TimeUnit: Units benchmark results are reported in
+ * java.util.concurrent.atomic.LongAdder: Counts tokenized terms so the work is not optimised away
+ */
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * RESPONSIBILITIES
+ * - Benchmarks listing the terms of TXT and PDF documents with Scanner, one number of words per term at a time,
+ *   as tries were once built
+ * - Compares it to tokenizing them in a single pass, as done when building tries
+ * - Measures PDF documents both with their text extracted every time and read from the text cache
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Duser.home=target/jmh-home"})
+public class TermListingBenchmark
+{
+    @Param({"2000", "20000"})
+    private int wordsPerDocument;
+
+    @Param({"5000"})
+    private int vocabularySize;
+
+    // Words per term, as used when building tries
+    @Param({"1", "2"})
+    private int wordsPerTerm;
+
+    @Param({"42"})
+    private long seed;
+
+    // Whether the text of PDF documents is read from the text cache after the first invocation, or always extracted
+    @Param({"false", "true"})
+    private boolean textCached;
+
+    private Path dir;
+    private Document txtDoc;
+    private Document pdfDoc;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        SyntheticCorpus corpus = new SyntheticCorpus(this.seed, this.vocabularySize);
+        List<String> words = corpus.words(this.wordsPerDocument);
+
+        this.dir = Files.createTempDirectory("legaldocs-bench");
+
+        // Same words in both files, so the results only differ by the cost of extraction
+        SyntheticCorpus.writeTxt(this.dir.resolve("document.txt"), words);
+        SyntheticCorpus.writePdf(this.dir.resolve("document.pdf"), words);
+
+        TextCache.setEnabled(this.textCached);
+
+        this.txtDoc = new Document(this.dir.resolve("document.txt").toFile());
+        this.pdfDoc = new Document(this.dir.resolve("document.pdf").toFile());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists(this.dir.resolve("document.txt"));
+        Files.deleteIfExists(this.dir.resolve("document.pdf"));
+        Files.deleteIfExists(this.dir);
+
+        TextCache.remove(this.pdfDoc.getFile());
+        TextCache.setEnabled(true);
+    }
+
+    @Benchmark
+    public List<String> listTermsTxt() throws IOException
+    {
+        return listTerms(this.txtDoc, this.wordsPerTerm, 0);
+    }
+
+    @Benchmark
+    public List<String> listTermsPdf() throws IOException
+    {
+        return listTerms(this.pdfDoc, this.wordsPerTerm, 0);
+    }
+
+    @Benchmark
+    public long tokenizeTxt() throws IOException
+    {
+        return tokenize(this.txtDoc, this.wordsPerTerm);
+    }
+
+    @Benchmark
+    public long tokenizePdf() throws IOException
+    {
+        return tokenize(this.pdfDoc, this.wordsPerTerm);
+    }
+
+    /*
+     * Returns the terms of a document of some words per term, the first term having offset words, as a LinkedList
+     * This is how tries were built before TermTokenizer, kept as the baseline it is compared to
+     */
+    private static List<String> listTerms(Document doc, int wordsPerTerm, int offset) throws IOException
+    {
+        List<String> terms = new LinkedList<>();
+        StringWriter fileText = new StringWriter();
+
+        doc.writeText(fileText);
+
+        offset %= wordsPerTerm;
+
+        try (InputStream fileTextStream = new ByteArrayInputStream(fileText.toString().getBytes(StandardCharsets.UTF_8));
+             Scanner in = new Scanner(fileTextStream, StandardCharsets.UTF_8))
+        {
+            for (int i = 0; i < offset; ++i)
+            {
+                if (!in.hasNext())
+                {
+                    return terms;
+                }
+
+                in.next();
+            }
+
+            while (true)
+            {
+                StringBuilder termToAdd = new StringBuilder();
+
+                for (int i = 0; i < wordsPerTerm; ++i)
+                {
+                    if (!in.hasNext())
+                    {
+                        return terms;
+                    }
+
+                    String S = in.next().trim();
+
+                    if (!S.isEmpty())
+                    {
+                        termToAdd.append(S).append(" ");
+                    }
+                }
+
+                terms.add(termToAdd.toString());
+            }
+        }
+    }
+
+    /* Counts all terms of 1 to maxWordsPerTerm words, extracting the text of the document once */
+    private static long tokenize(Document doc, int maxWordsPerTerm) throws IOException
+    {
+        LongAdder termCount = new LongAdder();
+
+        try (TermTokenizer tokenizer = new TermTokenizer(maxWordsPerTerm, term -> termCount.increment()))
+        {
+            doc.writeText(tokenizer);
+        }
+
+        return termCount.sum();
+    }
+}
@@ -53,6 +53,10 @@ public class Main extends Application
         // Display main scene
         stage.setScene(scene);
         stage.show();
+
+        // Documents were loaded without checking their tries, so the window shows immediately
+        // Tries are checked, and rebuilt if out-of-date, in the background
+        mainController.validateIndexes();
     }
 
     @Override
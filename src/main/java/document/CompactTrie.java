@@ -0,0 +1,859 @@
+package document;
+
+/*
+ * IMPORTS
+ * java.io.IOException: Thrown when a serialised trie is malformed
+ * package java.nio: Used for buffers that the trie is read from, which may be memory-mapped files
+ * package java.util: Used for collections and array utilities provided by Java
+ * package java.util.function: Used to pass the terms and nodes found by a traversal to the caller
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/*
+ * RESPONSIBILITIES
+ * - Represents a read-only trie laid out in flat primitive arrays, searchable with Levenshtein distance
+ * - Leaves computing distances to a DistanceKernel, so the way they are computed can be chosen at runtime
+ * - Keeps the children of every node contiguous and sorted by character, so nodes are only array indices
+ * - Terms are not stored; they are given by the characters on the path from the root
+ * - May hold the positions of every term in a document, so phrases can be matched word by word
+ * - May hold a DeletionIndex, answering fuzzy searches within small distances without traversing the trie
+ * - Has a binary format that can be searched directly from a memory-mapped file, without being deserialised
+ */
+
+class CompactTrie
+{
+    // Index of the root node
+    static final int ROOT = 0;
+
+    // What a traversal does after visiting a node
+    private static final int DESCEND = 1;
+    private static final int SKIP = 0;
+    private static final int STOP = -1;
+    // Depths traversals first allocate their cursors for; they grow with deeper terms
+    private static final int INITIAL_DEPTHS = 32;
+
+    // Identifies serialised tries ("LDTR"), and the version of their layout
+    static final int FORMAT_MAGIC = 0x4C445452;
+    static final int FORMAT_VERSION = 3;
+
+    // Serialised tries start with the magic number, the format version, the number of nodes, the number of positions,
+    // and the distance (0 if there is no deletion index), number of buckets and number of entries of the deletion index
+    private static final int HEADER_BYTES = 7 * Integer.BYTES;
+    // Serialised tries are little-endian regardless of the platform, so they can be shared between machines
+    private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    // Character on the edge leading to each node (unused for the root)
+    private final CharBuffer labels;
+    // Children of node i are the nodes firstChild[i] to firstChild[i + 1] - 1; one extra entry closes the last node
+    private final IntBuffer firstChild;
+    // Whether the path to each node spells a term (1 if it does, 0 otherwise)
+    private final ByteBuffer terms;
+    // Positions of the term of node i are positions[positionsFrom[i]] to positions[positionsFrom[i + 1] - 1], increasing
+    private final IntBuffer positionsFrom;
+    private final IntBuffer positions;
+    // Index of the deletions of the terms, or null if the trie has none
+    private final DeletionIndex deletions;
+
+    // Buffers are only ever read with absolute indices, so one trie can be searched from several threads
+    private CompactTrie(CharBuffer labels, IntBuffer firstChild, ByteBuffer terms, IntBuffer positionsFrom,
+                        IntBuffer positions, DeletionIndex deletions)
+    {
+        this.labels = labels;
+        this.firstChild = firstChild;
+        this.terms = terms;
+        this.positionsFrom = positionsFrom;
+        this.positions = positions;
+        this.deletions = deletions;
+    }
+
+    /*
+     * Reads a trie serialised with writeTo from a buffer, e.g. a memory-mapped file, without copying it
+     * The trie is then searched directly from the buffer
+     */
+    static CompactTrie readFrom(ByteBuffer buffer) throws IOException
+    {
+        ByteBuffer in = buffer.duplicate().order(BYTE_ORDER);
+
+        if (in.remaining() < HEADER_BYTES || in.getInt(0) != FORMAT_MAGIC)
+        {
+            throw new IOException("Not a serialised trie.");
+        }
+
+        if (in.getInt(Integer.BYTES) != FORMAT_VERSION)
+        {
+            throw new IOException("Unsupported serialised trie version " + in.getInt(Integer.BYTES) + ".");
+        }
+
+        int nodeCount = in.getInt(2 * Integer.BYTES);
+        int positionCount = in.getInt(3 * Integer.BYTES);
+        int deletionDistance = in.getInt(4 * Integer.BYTES);
+        int bucketCount = in.getInt(5 * Integer.BYTES);
+        int entryCount = in.getInt(6 * Integer.BYTES);
+
+        if (nodeCount < 1 || positionCount < 0 || deletionDistance < 0 || bucketCount < 0 || entryCount < 0
+                || in.remaining() != serialisedSize(nodeCount, positionCount, deletionDistance, bucketCount, entryCount))
+        {
+            throw new IOException("Truncated serialised trie.");
+        }
+
+        // Arrays follow the header, widest first so that each starts aligned to the size of its elements
+        int firstChildFrom = HEADER_BYTES;
+        int positionsFromFrom = firstChildFrom + (nodeCount + 1) * Integer.BYTES;
+        int positionsFrom = positionsFromFrom + (nodeCount + 1) * Integer.BYTES;
+        int deletionsFrom = positionsFrom + positionCount * Integer.BYTES;
+        int labelsFrom = deletionsFrom + deletionIndexSize(nodeCount, deletionDistance, bucketCount, entryCount);
+        int termsFrom = labelsFrom + nodeCount * Character.BYTES;
+
+        DeletionIndex deletions = (deletionDistance > 0)
+                ? DeletionIndex.readFrom(in, deletionsFrom, nodeCount, deletionDistance, bucketCount, entryCount)
+                : null;
+
+        return new CompactTrie(in.slice(labelsFrom, nodeCount * Character.BYTES).order(BYTE_ORDER).asCharBuffer(),
+                in.slice(firstChildFrom, (nodeCount + 1) * Integer.BYTES).order(BYTE_ORDER).asIntBuffer(),
+                in.slice(termsFrom, nodeCount),
+                in.slice(positionsFromFrom, (nodeCount + 1) * Integer.BYTES).order(BYTE_ORDER).asIntBuffer(),
+                in.slice(positionsFrom, positionCount * Integer.BYTES).order(BYTE_ORDER).asIntBuffer(),
+                deletions);
+    }
+
+    /* Writes the trie in the binary format read by readFrom */
+    void writeTo(WritableByteChannel channel) throws IOException
+    {
+        int nodeCount = this.size();
+        int positionCount = this.positions.capacity();
+        int deletionDistance = (this.deletions != null) ? this.deletions.getMaxDistance() : 0;
+        int bucketCount = (this.deletions != null) ? this.deletions.bucketCount() : 0;
+        int entryCount = (this.deletions != null) ? this.deletions.entryCount() : 0;
+
+        ByteBuffer out = ByteBuffer.allocate(serialisedSize(nodeCount, positionCount, deletionDistance, bucketCount,
+                entryCount)).order(BYTE_ORDER);
+
+        out.putInt(FORMAT_MAGIC).putInt(FORMAT_VERSION).putInt(nodeCount).putInt(positionCount)
+                .putInt(deletionDistance).putInt(bucketCount).putInt(entryCount);
+
+        for (int i = 0; i <= nodeCount; ++i)
+        {
+            out.putInt(this.firstChild.get(i));
+        }
+
+        for (int i = 0; i <= nodeCount; ++i)
+        {
+            out.putInt(this.positionsFrom.get(i));
+        }
+
+        for (int i = 0; i < positionCount; ++i)
+        {
+            out.putInt(this.positions.get(i));
+        }
+
+        if (this.deletions != null)
+        {
+            this.deletions.writeTo(out);
+        }
+
+        for (int i = 0; i < nodeCount; ++i)
+        {
+            out.putChar(this.labels.get(i));
+        }
+
+        for (int i = 0; i < nodeCount; ++i)
+        {
+            out.put(this.terms.get(i));
+        }
+
+        out.flip();
+
+        while (out.hasRemaining())
+        {
+            channel.write(out);
+        }
+    }
+
+    /* Returns the size in bytes of a serialised trie with some number of nodes and positions, and its deletion index */
+    private static int serialisedSize(int nodeCount, int positionCount, int deletionDistance, int bucketCount,
+                                      int entryCount)
+    {
+        return HEADER_BYTES + 2 * (nodeCount + 1) * Integer.BYTES + positionCount * Integer.BYTES
+                + deletionIndexSize(nodeCount, deletionDistance, bucketCount, entryCount)
+                + nodeCount * Character.BYTES + nodeCount;
+    }
+
+    /* Returns the size in bytes of a serialised deletion index, which is empty for a distance of 0 */
+    private static int deletionIndexSize(int nodeCount, int deletionDistance, int bucketCount, int entryCount)
+    {
+        return (deletionDistance > 0) ? DeletionIndex.serialisedSize(nodeCount, bucketCount, entryCount) : 0;
+    }
+
+    /*
+     * Builds a trie from a sorted list of distinct terms
+     * Nodes are numbered breadth-first, which is what keeps the children of each node contiguous
+     */
+    static CompactTrie fromSortedTerms(List<String> sortedTerms)
+    {
+        return fromSortedTerms(sortedTerms, (int[]) null);
+    }
+
+    /*
+     * Builds a trie from a sorted list of distinct terms, overloaded to record the node of every term
+     * If termNodes is not null, termNodes[i] is set to the node of the ith term
+     */
+    static CompactTrie fromSortedTerms(List<String> sortedTerms, int[] termNodes)
+    {
+        // A trie cannot have more nodes than the root plus one node per character of every term
+        int maxNodes = 1;
+
+        for (String term : sortedTerms)
+        {
+            maxNodes += term.length();
+        }
+
+        char[] labels = new char[maxNodes];
+        int[] firstChild = new int[maxNodes + 1];
+        byte[] terms = new byte[maxNodes];
+
+        // Every node covers the range of terms starting with its path, from termsFrom to termsTo - 1
+        int[] termsFrom = new int[maxNodes];
+        int[] termsTo = new int[maxNodes];
+        int[] depths = new int[maxNodes];
+
+        termsTo[ROOT] = sortedTerms.size();
+        int nodeCount = 1;
+
+        for (int node = 0; node < nodeCount; ++node)
+        {
+            int from = termsFrom[node];
+            int depth = depths[node];
+
+            firstChild[node] = nodeCount;
+
+            // A term ending at this node is a prefix of all other terms in its range, so it is sorted first
+            if (from < termsTo[node] && sortedTerms.get(from).length() == depth)
+            {
+                terms[node] = 1;
+
+                if (termNodes != null)
+                {
+                    termNodes[from] = node;
+                }
+
+                ++from;
+            }
+
+            // Every run of terms sharing their next character becomes a child
+            while (from < termsTo[node])
+            {
+                char c = sortedTerms.get(from).charAt(depth);
+                int to = from + 1;
+
+                while (to < termsTo[node] && sortedTerms.get(to).charAt(depth) == c)
+                {
+                    ++to;
+                }
+
+                labels[nodeCount] = c;
+                termsFrom[nodeCount] = from;
+                termsTo[nodeCount] = to;
+                depths[nodeCount] = depth + 1;
+                ++nodeCount;
+
+                from = to;
+            }
+        }
+
+        firstChild[nodeCount] = nodeCount;
+
+        // Trim arrays to the actual number of nodes
+        // No positions, so every term has an empty range of them
+        return new CompactTrie(CharBuffer.wrap(Arrays.copyOf(labels, nodeCount)),
+                IntBuffer.wrap(Arrays.copyOf(firstChild, nodeCount + 1)),
+                ByteBuffer.wrap(Arrays.copyOf(terms, nodeCount)),
+                IntBuffer.wrap(new int[nodeCount + 1]), IntBuffer.wrap(new int[0]), null);
+    }
+
+    /*
+     * Builds a trie from a sorted list of distinct terms, overloaded to hold the positions of every term
+     * termPositions.get(i) holds the positions of the ith term, in increasing order
+     */
+    static CompactTrie fromSortedTerms(List<String> sortedTerms, List<PostingList> termPositions)
+    {
+        int[] termNodes = new int[sortedTerms.size()];
+        CompactTrie trie = fromSortedTerms(sortedTerms, termNodes);
+
+        // Lay out the positions in node order, so that the positions of a node are found by its index
+        PostingList[] positionsOfNode = new PostingList[trie.size()];
+        int total = 0;
+
+        for (int i = 0; i < sortedTerms.size(); ++i)
+        {
+            positionsOfNode[termNodes[i]] = termPositions.get(i);
+            total += termPositions.get(i).size();
+        }
+
+        int[] positionsFrom = new int[trie.size() + 1];
+        int[] positions = new int[total];
+        int next = 0;
+
+        for (int node = 0; node < trie.size(); ++node)
+        {
+            positionsFrom[node] = next;
+
+            if (positionsOfNode[node] != null)
+            {
+                next = positionsOfNode[node].copyTo(positions, next);
+            }
+        }
+
+        positionsFrom[trie.size()] = next;
+
+        return new CompactTrie(trie.labels, trie.firstChild, trie.terms, IntBuffer.wrap(positionsFrom),
+                IntBuffer.wrap(positions), null);
+    }
+
+    /* Returns the same trie with a deletion index, for fuzzy searches within up to maxDistance */
+    CompactTrie withDeletionIndex(int maxDistance)
+    {
+        return new CompactTrie(this.labels, this.firstChild, this.terms, this.positionsFrom, this.positions,
+                DeletionIndex.build(this, maxDistance));
+    }
+
+    /* Returns true if the trie has a deletion index */
+    boolean hasDeletionIndex()
+    {
+        return this.deletions != null;
+    }
+
+    /* Returns the number of nodes in the trie */
+    int size()
+    {
+        return this.labels.capacity();
+    }
+
+    /*
+     * Returns an estimate of the memory taken by the arrays of the trie, in bytes
+     * For a memory-mapped trie this is memory of the page cache rather than of the heap
+     */
+    long estimateSize()
+    {
+        // One char label, one child offset, one position offset and one terminal flag per node, and the positions
+        return (long) this.size() * (Character.BYTES + 2 * Integer.BYTES + 1)
+                + (long) this.positions.capacity() * Integer.BYTES
+                + ((this.deletions != null) ? this.deletions.estimateSize() : 0);
+    }
+
+    /* Returns the character on the edge leading to a node */
+    char label(int node)
+    {
+        return this.labels.get(node);
+    }
+
+    /* Checks if the path to a node spells a term */
+    boolean isTerm(int node)
+    {
+        return this.terms.get(node) != 0;
+    }
+
+    /* Returns the index of the first child of a node */
+    int childrenFrom(int node)
+    {
+        return this.firstChild.get(node);
+    }
+
+    /* Returns one past the index of the last child of a node */
+    int childrenTo(int node)
+    {
+        return this.firstChild.get(node + 1);
+    }
+
+    /* Returns the index of the first position of the term of a node */
+    int positionsFrom(int node)
+    {
+        return this.positionsFrom.get(node);
+    }
+
+    /* Returns one past the index of the last position of the term of a node */
+    int positionsTo(int node)
+    {
+        return this.positionsFrom.get(node + 1);
+    }
+
+    /* Returns the position at some index, as given by positionsFrom and positionsTo */
+    int position(int index)
+    {
+        return this.positions.get(index);
+    }
+
+    /* Returns the child of a node reached with some character, or -1 if there is none */
+    int child(int node, char c)
+    {
+        // Children are sorted by character so they can be binary searched
+        int lo = this.childrenFrom(node);
+        int hi = this.childrenTo(node) - 1;
+
+        while (lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            char midLabel = this.labels.get(mid);
+
+            if (midLabel < c)
+            {
+                lo = mid + 1;
+            }
+            else if (midLabel > c)
+            {
+                hi = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    /* Returns the node reached by following the characters of a string from the root, or -1 if there is none */
+    int followPath(String path)
+    {
+        int cur = ROOT;
+
+        for (int i = 0; i < path.length() && cur != -1; ++i)
+        {
+            cur = this.child(cur, path.charAt(i));
+        }
+
+        return cur;
+    }
+
+    /* Returns true if the characters of a string can be followed as a path from the root, false otherwise */
+    boolean containsPath(String path)
+    {
+        return this.followPath(path) != -1;
+    }
+
+    /* Passes every term of the trie to a consumer, reconstructing the terms from their paths */
+    void forEachTerm(Consumer<String> onTerm)
+    {
+        StringBuilder path = new StringBuilder();
+
+        this.traverse(ROOT, 0, path, (node, depth) ->
+        {
+            if (this.isTerm(node))
+            {
+                onTerm.accept(path.toString());
+            }
+
+            return DESCEND;
+        });
+    }
+
+    /* Passes every term node in the "subtree" starting from curNode to a consumer */
+    void forEachTermNodeUnder(int curNode, IntConsumer onTermNode)
+    {
+        this.traverse(curNode, 0, null, (node, depth) ->
+        {
+            if (this.isTerm(node))
+            {
+                onTermNode.accept(node);
+            }
+
+            return DESCEND;
+        });
+    }
+
+    /* Returns true if some term is within maxDistance of the pattern */
+    boolean hasTermWithin(String pattern, int maxDistance)
+    {
+        return this.hasTermsWithin(new String[]{pattern}, maxDistance)[0];
+    }
+
+    /*
+     * Returns, for every pattern, whether some term is within maxDistance of it
+     * All patterns are matched in the same traversal, which stops as soon as every pattern has a match
+     * A pattern is no longer matched once found, and a branch is dropped once no unfound pattern can match in it,
+     * since the distances of the terms further down that branch can only be greater
+     */
+    boolean[] hasTermsWithin(String[] patterns, int maxDistance)
+    {
+        boolean[] found = new boolean[patterns.length];
+
+        // Patterns looked up in the deletion index are not matched in the traversal
+        boolean[] lookedUp = this.lookUpDeletions(patterns, maxDistance,
+                (patternIndex, termNode, distance) -> found[patternIndex] = true);
+
+        PatternStates states = new PatternStates(patterns, maxDistance);
+
+        this.traverse(ROOT, 0, null, (node, depth) ->
+        {
+            boolean anyActive = false;
+            boolean allFound = true;
+
+            for (int i = 0; i < patterns.length; ++i)
+            {
+                if (found[i] || lookedUp[i] || !states.isActiveAbove(depth, i))
+                {
+                    allFound &= found[i];
+                    states.setActive(depth, i, false);
+                    continue;
+                }
+
+                // The distance of the term at the current node from the pattern
+                if (states.isTermWithin(node, depth, i))
+                {
+                    found[i] = true;
+                    states.setActive(depth, i, false);
+                    continue;
+                }
+
+                allFound = false;
+                anyActive |= states.updateActive(depth, i);
+            }
+
+            if (allFound)
+            {
+                return STOP;
+            }
+
+            // No term in this branch can be within maxDistance of an unfound pattern
+            return anyActive ? DESCEND : SKIP;
+        });
+
+        return found;
+    }
+
+    /* Passes the node of every term within maxDistance of the pattern to a consumer */
+    void forEachTermNodeWithin(String pattern, int maxDistance, IntConsumer onTermNode)
+    {
+        this.forEachTermNodeWithin(new String[]{pattern}, maxDistance,
+                (patternIndex, termNode, distance) -> onTermNode.accept(termNode));
+    }
+
+    /*
+     * Passes the node of every term within maxDistance of any of the patterns to a consumer,
+     * with the index of the pattern and the distance of the term from it
+     * All patterns are matched in the same traversal
+     * A branch is dropped once no pattern can be within maxDistance of a term in it
+     */
+    void forEachTermNodeWithin(String[] patterns, int maxDistance, TermNodeConsumer onTermNode)
+    {
+        // Patterns looked up in the deletion index are not matched in the traversal
+        boolean[] lookedUp = this.lookUpDeletions(patterns, maxDistance, onTermNode);
+
+        PatternStates states = new PatternStates(patterns, maxDistance);
+
+        this.traverse(ROOT, 0, null, (node, depth) ->
+        {
+            boolean anyActive = false;
+
+            for (int i = 0; i < patterns.length; ++i)
+            {
+                // Skip patterns that cannot match any term in this branch
+                if (lookedUp[i] || !states.isActiveAbove(depth, i))
+                {
+                    states.setActive(depth, i, false);
+                    continue;
+                }
+
+                if (states.isTermWithin(node, depth, i))
+                {
+                    onTermNode.accept(i, node, states.distance(depth, i));
+                }
+
+                anyActive |= states.updateActive(depth, i);
+            }
+
+            // No term in this branch can be within maxDistance of any pattern
+            return anyActive ? DESCEND : SKIP;
+        });
+    }
+
+    /*
+     * Passes every term within maxDistance of the pattern to a consumer, with its distance
+     * The consumer returns the largest distance it is still interested in, which narrows the rest of the traversal,
+     * or -1 to stop it
+     * Terms are only reconstructed from their paths when they are within the distance still of interest
+     */
+    void forEachTermWithin(String pattern, int maxDistance, TermMatchConsumer onTerm)
+    {
+        if (this.deletions != null && this.deletions.canSearch(pattern, maxDistance))
+        {
+            this.forEachTermWithinDeletions(pattern, maxDistance, onTerm);
+            return;
+        }
+
+        DistanceKernel kernel = DistanceKernel.forPattern(pattern);
+        StringBuilder path = new StringBuilder();
+        int[] budget = {maxDistance};
+
+        this.traverse(ROOT, 0, path, (node, depth) ->
+        {
+            if (depth > 0)
+            {
+                kernel.advance(depth, this.label(node));
+            }
+
+            int distance = kernel.distance(depth);
+
+            if (this.isTerm(node) && distance <= budget[0])
+            {
+                budget[0] = onTerm.accept(node, path, distance);
+            }
+
+            // Stop if the consumer is done, or drop the branch if no term in it can be within the budget
+            if (budget[0] < 0)
+            {
+                return STOP;
+            }
+
+            return kernel.canMatchWithin(depth, budget[0]) ? DESCEND : SKIP;
+        });
+    }
+
+    /*
+     * Passes the terms within maxDistance of the pattern found in the deletion index to a consumer, as forEachTermWithin
+     * Terms are passed in the order a traversal would find them, which is the order of the strings
+     */
+    private void forEachTermWithinDeletions(String pattern, int maxDistance, TermMatchConsumer onTerm)
+    {
+        List<String> terms = new ArrayList<>();
+        Map<String, int[]> nodesAndDistances = new HashMap<>();
+
+        this.deletions.forEachTermNodeWithin(this, pattern, 0, maxDistance, (patternIndex, termNode, distance) ->
+        {
+            String term = this.deletions.termOf(this, termNode);
+
+            terms.add(term);
+            nodesAndDistances.put(term, new int[]{termNode, distance});
+        });
+
+        Collections.sort(terms);
+
+        int budget = maxDistance;
+
+        for (String term : terms)
+        {
+            int[] nodeAndDistance = nodesAndDistances.get(term);
+
+            if (nodeAndDistance[1] <= budget)
+            {
+                budget = onTerm.accept(nodeAndDistance[0], term, nodeAndDistance[1]);
+            }
+
+            if (budget < 0)
+            {
+                return;
+            }
+        }
+    }
+
+    /*
+     * Looks up the patterns the deletion index can answer, passing the nodes of the terms found to a consumer
+     * Returns which patterns were looked up, so the others can be matched by traversing the trie
+     */
+    private boolean[] lookUpDeletions(String[] patterns, int maxDistance, TermNodeConsumer onTermNode)
+    {
+        boolean[] lookedUp = new boolean[patterns.length];
+
+        for (int i = 0; i < patterns.length && this.deletions != null; ++i)
+        {
+            if (this.deletions.canSearch(patterns[i], maxDistance))
+            {
+                this.deletions.forEachTermNodeWithin(this, patterns[i], i, maxDistance, onTermNode);
+                lookedUp[i] = true;
+            }
+        }
+
+        return lookedUp;
+    }
+
+    /*
+     * Passes every term the prefix can be followed to a consumer, with a distance of 0
+     * The traversal stops once the consumer returns -1
+     */
+    void forEachTermWithPrefix(String prefix, TermMatchConsumer onTerm)
+    {
+        int from = this.followPath(prefix);
+
+        if (from == -1)
+        {
+            return;
+        }
+
+        StringBuilder path = new StringBuilder(prefix);
+
+        this.traverse(from, prefix.length(), path, (node, depth) ->
+                (this.isTerm(node) && onTerm.accept(node, path, 0) < 0) ? STOP : DESCEND);
+    }
+
+    /*
+     * Visits the nodes of the "subtree" starting from fromNode depth-first, children in order of their characters
+     * Uses a cursor over the children of every node on the current path rather than recursion, so that deep tries
+     * cannot overflow the stack, and nothing is allocated per node
+     * When a node is visited, path (if not null) holds the characters up to it, and the nodes visited last at every
+     * smaller depth are its ancestors, so state kept per depth by the visitor is that of the path to the node
+     */
+    private void traverse(int fromNode, int fromDepth, StringBuilder path, NodeVisitor visitor)
+    {
+        if (visitor.visit(fromNode, fromDepth) != DESCEND)
+        {
+            return;
+        }
+
+        int pathFrom = (path != null) ? path.length() - fromDepth : 0;
+
+        // Next child to visit and end of the children, of the node at every depth of the path from fromNode
+        int[] nextChild = new int[INITIAL_DEPTHS];
+        int[] childrenEnd = new int[INITIAL_DEPTHS];
+        int top = 0;
+
+        nextChild[0] = this.childrenFrom(fromNode);
+        childrenEnd[0] = this.childrenTo(fromNode);
+
+        while (top >= 0)
+        {
+            // All children visited; go back up to the parent
+            if (nextChild[top] == childrenEnd[top])
+            {
+                --top;
+                continue;
+            }
+
+            int node = nextChild[top]++;
+            int depth = fromDepth + top + 1;
+
+            if (path != null)
+            {
+                path.setLength(pathFrom + depth - 1);
+                path.append(this.label(node));
+            }
+
+            int verdict = visitor.visit(node, depth);
+
+            if (verdict == STOP)
+            {
+                return;
+            }
+
+            if (verdict == DESCEND && this.childrenFrom(node) < this.childrenTo(node))
+            {
+                if (++top == nextChild.length)
+                {
+                    nextChild = Arrays.copyOf(nextChild, 2 * top);
+                    childrenEnd = Arrays.copyOf(childrenEnd, 2 * top);
+                }
+
+                nextChild[top] = this.childrenFrom(node);
+                childrenEnd[top] = this.childrenTo(node);
+            }
+        }
+    }
+
+    /*
+     * RESPONSIBILITIES
+     *   - Keeps a distance kernel for every pattern of a traversal matching several patterns at once
+     *   - Keeps, for every depth of the current path, which patterns can still match a term in the branch
+     */
+    private class PatternStates
+    {
+        private final DistanceKernel[] kernels;
+        private final int maxDistance;
+
+        // active[depth * kernels.length + i] is true if pattern i can match a term below the node at that depth
+        private boolean[] active;
+
+        PatternStates(String[] patterns, int maxDistance)
+        {
+            this.kernels = new DistanceKernel[patterns.length];
+            this.maxDistance = maxDistance;
+            this.active = new boolean[INITIAL_DEPTHS * patterns.length];
+
+            for (int i = 0; i < patterns.length; ++i)
+            {
+                this.kernels[i] = DistanceKernel.forPattern(patterns[i]);
+            }
+        }
+
+        /* Returns true if a pattern can match a term in the branch of the node at some depth; all can at the root */
+        boolean isActiveAbove(int depth, int i)
+        {
+            return depth == 0 || this.active[(depth - 1) * this.kernels.length + i];
+        }
+
+        void setActive(int depth, int i, boolean isActive)
+        {
+            int index = depth * this.kernels.length + i;
+
+            if (index >= this.active.length)
+            {
+                this.active = Arrays.copyOf(this.active, Math.max(2 * this.active.length, index + 1));
+            }
+
+            this.active[index] = isActive;
+        }
+
+        /* Computes the distances of the term at a node for a pattern, returning true if it is within maxDistance */
+        boolean isTermWithin(int node, int depth, int i)
+        {
+            if (depth > 0)
+            {
+                this.kernels[i].advance(depth, CompactTrie.this.label(node));
+            }
+
+            return CompactTrie.this.isTerm(node) && this.kernels[i].distance(depth) <= this.maxDistance;
+        }
+
+        int distance(int depth, int i)
+        {
+            return this.kernels[i].distance(depth);
+        }
+
+        /* Records whether a pattern can match a term below the node at some depth, and returns it */
+        boolean updateActive(int depth, int i)
+        {
+            boolean isActive = this.kernels[i].canMatchWithin(depth, this.maxDistance);
+
+            this.setActive(depth, i, isActive);
+
+            return isActive;
+        }
+    }
+
+    /*
+     * RESPONSIBILITIES
+     *   - Visits a node of a traversal, returning whether to go down to its children, skip them or stop
+     */
+    @FunctionalInterface
+    private interface NodeVisitor
+    {
+        int visit(int node, int depth);
+    }
+
+    /*
+     * RESPONSIBILITIES
+     *   - Receives the term nodes found when matching several patterns at once, with their distances from the pattern
+     */
+    @FunctionalInterface
+    interface TermNodeConsumer
+    {
+        void accept(int patternIndex, int termNode, int distance);
+    }
+
+    /*
+     * RESPONSIBILITIES
+     *   - Receives the terms found by a ranked traversal, with their distances from the pattern
+     *   - Returns the largest distance still of interest, or -1 to stop the traversal
+     */
+    @FunctionalInterface
+    interface TermMatchConsumer
+    {
+        int accept(int termNode, CharSequence term, int distance);
+    }
+}
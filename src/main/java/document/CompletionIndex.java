@@ -0,0 +1,141 @@
+package document;
+
+/*
+ * IMPORTS
+ * package java.util: Used for collections and array utilities provided by Java
+ */
+
+import java.util.*;
+
+/*
+ * RESPONSIBILITIES
+ * - Represents the most frequent terms starting with every prefix in a CompactTrie, for completing search strings
+ * - Keeps a list of the top MAX_COMPLETIONS terms under every node, computed once when built, so completing a prefix
+ *   only follows its path and reads the list of its node
+ * Note that a node with a single child and no term of its own shares the list of its child, so chains of nodes
+ * in the trie do not repeat the same list.
+ */
+
+class CompletionIndex
+{
+    // Most terms kept for every node, and so most completions returned for a prefix
+    static final int MAX_COMPLETIONS = 10;
+
+    private final CompactTrie trie;
+    // Terms of the trie in sorted order, which completions index into
+    private final String[] terms;
+
+    // Completions of node i are the terms at indices completions[completionsFrom[i]] to completions[completionsTo[i] - 1],
+    // most frequent first
+    private final int[] completionsFrom;
+    private final int[] completionsTo;
+    private final int[] completions;
+
+    private CompletionIndex(CompactTrie trie, String[] terms, int[] completionsFrom, int[] completionsTo, int[] completions)
+    {
+        this.trie = trie;
+        this.terms = terms;
+        this.completionsFrom = completionsFrom;
+        this.completionsTo = completionsTo;
+        this.completions = completions;
+    }
+
+    /*
+     * Builds the index of a trie built from sorted terms, with the node and the frequency of every term
+     * Ties in frequency are broken by the order of the terms
+     */
+    static CompletionIndex build(CompactTrie trie, List<String> sortedTerms, int[] termNodes, int[] frequencies)
+    {
+        int nodeCount = trie.size();
+        int[] termOfNode = new int[nodeCount];
+
+        Arrays.fill(termOfNode, -1);
+
+        for (int i = 0; i < termNodes.length; ++i)
+        {
+            termOfNode[termNodes[i]] = i;
+        }
+
+        Comparator<Integer> byFrequency = (a, b) -> (frequencies[a] != frequencies[b])
+                ? Integer.compare(frequencies[b], frequencies[a])
+                : Integer.compare(a, b);
+
+        int[] completionsFrom = new int[nodeCount];
+        int[] completionsTo = new int[nodeCount];
+        int[] completions = new int[16];
+        int count = 0;
+
+        List<Integer> candidates = new ArrayList<>();
+
+        // Children always come after their parent, so going backwards the lists of the children of a node are ready
+        for (int node = nodeCount - 1; node >= 0; --node)
+        {
+            int childrenFrom = trie.childrenFrom(node);
+            int childrenTo = trie.childrenTo(node);
+
+            if (termOfNode[node] == -1 && childrenTo - childrenFrom == 1)
+            {
+                completionsFrom[node] = completionsFrom[childrenFrom];
+                completionsTo[node] = completionsTo[childrenFrom];
+                continue;
+            }
+
+            candidates.clear();
+
+            if (termOfNode[node] != -1)
+            {
+                candidates.add(termOfNode[node]);
+            }
+
+            for (int child = childrenFrom; child < childrenTo; ++child)
+            {
+                for (int i = completionsFrom[child]; i < completionsTo[child]; ++i)
+                {
+                    candidates.add(completions[i]);
+                }
+            }
+
+            candidates.sort(byFrequency);
+
+            int kept = Math.min(candidates.size(), MAX_COMPLETIONS);
+
+            if (count + kept > completions.length)
+            {
+                completions = Arrays.copyOf(completions, Math.max(2 * completions.length, count + kept));
+            }
+
+            completionsFrom[node] = count;
+
+            for (int i = 0; i < kept; ++i)
+            {
+                completions[count++] = candidates.get(i);
+            }
+
+            completionsTo[node] = count;
+        }
+
+        return new CompletionIndex(trie, sortedTerms.toArray(new String[0]), completionsFrom, completionsTo,
+                Arrays.copyOf(completions, count));
+    }
+
+    /* Returns up to n of the most frequent terms starting with a normalised prefix, most frequent first */
+    List<String> complete(String prefix, int n)
+    {
+        int node = this.trie.followPath(prefix);
+
+        if (node == -1)
+        {
+            return new ArrayList<>();
+        }
+
+        int to = Math.min(this.completionsTo[node], this.completionsFrom[node] + n);
+        List<String> found = new ArrayList<>(Math.max(to - this.completionsFrom[node], 0));
+
+        for (int i = this.completionsFrom[node]; i < to; ++i)
+        {
+            found.add(this.terms[this.completions[i]]);
+        }
+
+        return found;
+    }
+}
@@ -0,0 +1,161 @@
+package document;
+
+/*
+ * IMPORTS
+ * packages java.io, java.nio: For I/O operations, and to read the input in little-endian blocks
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * RESPONSIBILITIES
+ * - Hashes the contents of files with 128-bit MurmurHash3 (x64 variant, seed 0), as 32 hexadecimal digits
+ * - Is much faster than a cryptographic hash, as every document file is hashed when it is new or has changed
+ * - Streams the file through a fixed buffer, so files of any size are hashed without holding them in memory
+ * Note that the hash is not cryptographic: it tells apart the contents of files, not contents made to collide.
+ */
+
+final class ContentHash
+{
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private static final int BLOCK_BYTES = 16;
+    // Bytes read at a time; a multiple of the block size, so only the end of the file can leave part of a block
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private long h1;
+    private long h2;
+    private long length;
+
+    private ContentHash()
+    {
+        this.h1 = 0;
+        this.h2 = 0;
+        this.length = 0;
+    }
+
+    /* Returns the hash of the contents of a file */
+    static String of(File file) throws IOException
+    {
+        ContentHash hash = new ContentHash();
+        // Direct, so the file is read into it without another copy
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            while (channel.read(buffer) != -1)
+            {
+                // Only whole buffers are hashed before the end, so every block but the last is whole
+                if (!buffer.hasRemaining())
+                {
+                    buffer.flip();
+                    hash.updateBlocks(buffer);
+                    buffer.clear();
+                }
+            }
+        }
+
+        buffer.flip();
+        hash.updateBlocks(buffer);
+
+        return hash.finish(buffer);
+    }
+
+    /* Mixes in every whole block left in a buffer, leaving any bytes after the last whole block */
+    private void updateBlocks(ByteBuffer buffer)
+    {
+        while (buffer.remaining() >= BLOCK_BYTES)
+        {
+            long k1 = buffer.getLong();
+            long k2 = buffer.getLong();
+
+            this.h1 ^= mixK1(k1);
+            this.h1 = Long.rotateLeft(this.h1, 27);
+            this.h1 += this.h2;
+            this.h1 = this.h1 * 5 + 0x52dce729;
+
+            this.h2 ^= mixK2(k2);
+            this.h2 = Long.rotateLeft(this.h2, 31);
+            this.h2 += this.h1;
+            this.h2 = this.h2 * 5 + 0x38495ab5;
+
+            this.length += BLOCK_BYTES;
+        }
+    }
+
+    /* Mixes in the bytes left after the last whole block, then returns the hash */
+    private String finish(ByteBuffer tail)
+    {
+        long k1 = 0;
+        long k2 = 0;
+        int tailBytes = tail.remaining();
+
+        for (int i = 0; i < tailBytes; ++i)
+        {
+            long b = tail.get() & 0xffL;
+
+            if (i < Long.BYTES)
+            {
+                k1 |= b << (8 * i);
+            }
+            else
+            {
+                k2 |= b << (8 * (i - Long.BYTES));
+            }
+        }
+
+        this.length += tailBytes;
+
+        if (tailBytes > Long.BYTES)
+        {
+            this.h2 ^= mixK2(k2);
+        }
+
+        if (tailBytes > 0)
+        {
+            this.h1 ^= mixK1(k1);
+        }
+
+        this.h1 ^= this.length;
+        this.h2 ^= this.length;
+
+        this.h1 += this.h2;
+        this.h2 += this.h1;
+
+        this.h1 = fmix(this.h1);
+        this.h2 = fmix(this.h2);
+
+        this.h1 += this.h2;
+        this.h2 += this.h1;
+
+        // Bytes of the hash in little-endian order, as other implementations print them
+        return String.format("%016x%016x", Long.reverseBytes(this.h1), Long.reverseBytes(this.h2));
+    }
+
+    private static long mixK1(long k1)
+    {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k2)
+    {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    /* Final mix, so every bit of the input affects every bit of the hash */
+    private static long fmix(long k)
+    {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+
+        return k;
+    }
+}
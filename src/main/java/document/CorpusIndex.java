@@ -0,0 +1,386 @@
+package document;
+
+/*
+ * IMPORTS
+ * package java.util: Used for collections and other utilities provided by Java
+ */
+
+import java.util.*;
+
+/*
+ * RESPONSIBILITIES
+ * - Represents a single term dictionary for all documents, searchable with Levenshtein distance
+ * - Maps every term to a posting list of the IDs of the documents containing it
+ * - Narrows phrases down to the documents containing every word, whose positions are then checked by their matchers
+ * - Completes prefixes with the terms found in the most documents
+ */
+
+class CorpusIndex
+{
+    // Documents by ID; removed and re-added documents leave a null entry until the next rebuild renumbers the IDs
+    private final List<Document> docsById;
+    // IDs of the documents in the index, and the modification dates of their files when they were added
+    private final Map<Document, Integer> ids;
+    private final Map<Document, Long> datesIndexed;
+    // Order documents were first added in, kept when they are added again, which IDs follow once renumbered
+    private final Map<Document, Long> ranks;
+    private long nextRank;
+
+    // Posting lists of every term, each holding IDs in increasing order
+    private final Map<String, PostingList> postingsByTerm;
+
+    // Searchable snapshot of postingsByTerm, rebuilt when documents have been added or removed since
+    private CompactTrie trie;
+    // Postings of node i are postings[postingsFrom[i]] to postings[postingsFrom[i + 1] - 1]
+    private int[] postingsFrom;
+    private int[] postings;
+    // Most frequent terms under every node of the trie, rebuilt with it
+    private CompletionIndex completions;
+    private boolean changed;
+
+    CorpusIndex()
+    {
+        this.docsById = new ArrayList<>();
+        this.ids = new HashMap<>();
+        this.datesIndexed = new HashMap<>();
+        this.ranks = new HashMap<>();
+        this.nextRank = 0;
+        this.postingsByTerm = new HashMap<>();
+
+        this.changed = true;
+    }
+
+    /* Checks if a document is in the index and its file has not been modified since it was added */
+    synchronized boolean isUpToDate(Document doc)
+    {
+        Long dateIndexed = this.datesIndexed.get(doc);
+
+        return dateIndexed != null && dateIndexed == doc.getDateModified();
+    }
+
+    /* Adds the terms of a document to the index, replacing any terms previously added for it */
+    synchronized void add(Document doc, DocumentMatcher docMatcher)
+    {
+        Long rank = this.ranks.get(doc);
+
+        this.remove(doc);
+        this.ranks.put(doc, (rank != null) ? rank : this.nextRank++);
+
+        int id = this.docsById.size();
+
+        this.docsById.add(doc);
+        this.ids.put(doc, id);
+        this.datesIndexed.put(doc, doc.getDateModified());
+
+        // IDs only increase, so appending keeps every posting list sorted
+        docMatcher.forEachTerm(term -> this.postingsByTerm.computeIfAbsent(term, t -> new PostingList()).add(id));
+
+        this.changed = true;
+    }
+
+    /* Removes a document from the index, if it is in it */
+    synchronized void remove(Document doc)
+    {
+        Integer id = this.ids.remove(doc);
+
+        if (id != null)
+        {
+            // Postings of the document are only dropped on the next rebuild
+            this.docsById.set(id, null);
+            this.datesIndexed.remove(doc);
+            this.ranks.remove(doc);
+
+            this.changed = true;
+        }
+    }
+
+    /* Returns the documents containing a match for the pattern, with the same semantics as DocumentMatcher.matches */
+    Set<Document> search(String pattern, int maxDistance)
+    {
+        return this.search(new String[]{pattern}, maxDistance).get(0);
+    }
+
+    /*
+     * Returns the documents containing a match for each of the patterns, in the same order as the patterns
+     * For a phrase, returns the documents containing a match for every word, which may not have them at
+     * consecutive positions
+     * All fuzzy words are matched in a single traversal of the term dictionary
+     */
+    synchronized List<Set<Document>> search(String[] patterns, int maxDistance)
+    {
+        this.rebuildIfChanged();
+
+        List<Set<Document>> results = new ArrayList<>(patterns.length);
+
+        // Documents matching every word of every pattern
+        List<List<Set<Document>>> wordResults = new ArrayList<>(patterns.length);
+
+        // Words that need a fuzzy search, and the patterns they are the jth word of
+        List<String> fuzzyWords = new ArrayList<>();
+        List<Integer> fuzzyIndices = new ArrayList<>();
+        List<Integer> fuzzyWordIndices = new ArrayList<>();
+
+        for (int i = 0; i < patterns.length; ++i)
+        {
+            String[] words = DocumentMatcher.listWords(patterns[i]);
+            List<Set<Document>> patternWordResults = new ArrayList<>(words.length);
+
+            wordResults.add(patternWordResults);
+
+            if (words.length == 0)
+            {
+                // Every document matches a blank pattern
+                patternWordResults.add(new HashSet<>(this.ids.keySet()));
+            }
+
+            for (int j = 0; j < words.length; ++j)
+            {
+                Set<Document> wordMatches = new HashSet<>();
+                patternWordResults.add(wordMatches);
+
+                if (maxDistance > 0)
+                {
+                    fuzzyWords.add(words[j]);
+                    fuzzyIndices.add(i);
+                    fuzzyWordIndices.add(j);
+                }
+                else if (j == words.length - 1)
+                {
+                    this.addPrefixMatches(words[j], wordMatches);
+                }
+                else
+                {
+                    this.addExactMatches(words[j], wordMatches);
+                }
+            }
+        }
+
+        if (!fuzzyWords.isEmpty())
+        {
+            this.trie.forEachTermNodeWithin(fuzzyWords.toArray(new String[0]), maxDistance, (wordIndex, termNode, distance) ->
+                    this.addPostingsOf(termNode, wordResults.get(fuzzyIndices.get(wordIndex)).get(fuzzyWordIndices.get(wordIndex))));
+        }
+
+        for (List<Set<Document>> patternWordResults : wordResults)
+        {
+            Set<Document> patternResults = patternWordResults.get(0);
+
+            for (Set<Document> wordMatches : patternWordResults)
+            {
+                patternResults.retainAll(wordMatches);
+            }
+
+            results.add(patternResults);
+        }
+
+        return results;
+    }
+
+    /*
+     * Returns the k documents closest to a single word, closest first, with the same semantics as DocumentMatcher.matches
+     * Every document is listed with its best term; ties are broken by the order the documents were first added in
+     * Phrases are ranked by the matchers of the documents returned by search instead
+     */
+    synchronized List<SearchResult> searchRanked(String pattern, int maxDistance, int k)
+    {
+        this.rebuildIfChanged();
+
+        TopResults top = new TopResults(k);
+        String[] words = DocumentMatcher.listWords(pattern);
+
+        // Every document matches a blank pattern exactly
+        if (words.length == 0)
+        {
+            for (int id = 0; id < this.docsById.size() && !top.isFull(); ++id)
+            {
+                if (this.docsById.get(id) != null)
+                {
+                    top.offer(id, this.docsById.get(id), "", 0);
+                }
+            }
+
+            return top.toList();
+        }
+
+        // Offer the documents of every term found, narrowing the search to what can still make the top k
+        CompactTrie.TermMatchConsumer offerPostings = (termNode, term, distance) ->
+        {
+            for (int i = this.postingsFrom[termNode]; i < this.postingsFrom[termNode + 1]; ++i)
+            {
+                top.offer(this.postings[i], this.docsById.get(this.postings[i]), term, distance);
+            }
+
+            // Stop early once k exact matches are found
+            return top.isFullOfExactMatches() ? -1 : top.maxUsefulDistance(maxDistance);
+        };
+
+        if (maxDistance == 0)
+        {
+            // Same prefix matching as DocumentMatcher.contains
+            this.trie.forEachTermWithPrefix(words[0], offerPostings);
+        }
+        else
+        {
+            this.trie.forEachTermWithin(words[0], maxDistance, offerPostings);
+        }
+
+        return top.toList();
+    }
+
+    /*
+     * Returns up to n terms starting with a word, those found in the most documents first
+     * Nothing is searched: the terms of every prefix are listed when the index is rebuilt
+     */
+    synchronized List<String> complete(String word, int n)
+    {
+        this.rebuildIfChanged();
+
+        return this.completions.complete(word, n);
+    }
+
+    /* Adds the documents matching a word at distance 0 to a set, with the same semantics as DocumentMatcher.contains */
+    private void addPrefixMatches(String word, Set<Document> results)
+    {
+        // Like DocumentMatcher.contains, match any term the word is a prefix of
+        int node = this.trie.followPath(word);
+
+        if (node != -1)
+        {
+            this.trie.forEachTermNodeUnder(node, termNode -> this.addPostingsOf(termNode, results));
+        }
+    }
+
+    /* Adds the documents containing exactly a word to a set, as needed for all words of a phrase but the last */
+    private void addExactMatches(String word, Set<Document> results)
+    {
+        int node = this.trie.followPath(word);
+
+        if (node != -1 && this.trie.isTerm(node))
+        {
+            this.addPostingsOf(node, results);
+        }
+    }
+
+    /* Adds the documents in the posting list of a term node to a set */
+    private void addPostingsOf(int termNode, Set<Document> results)
+    {
+        for (int i = this.postingsFrom[termNode]; i < this.postingsFrom[termNode + 1]; ++i)
+        {
+            results.add(this.docsById.get(this.postings[i]));
+        }
+    }
+
+    /* Rebuilds the searchable trie and posting arrays if documents have been added or removed since the last rebuild */
+    private void rebuildIfChanged()
+    {
+        if (!this.changed)
+        {
+            return;
+        }
+
+        int[] newIds = this.renumber();
+        List<String> terms = new ArrayList<>(this.postingsByTerm.size());
+
+        // Drop the postings of removed documents, and the terms left without any documents
+        Iterator<Map.Entry<String, PostingList>> it = this.postingsByTerm.entrySet().iterator();
+
+        while (it.hasNext())
+        {
+            Map.Entry<String, PostingList> entry = it.next();
+            PostingList termPostings = entry.getValue();
+
+            if (newIds != null)
+            {
+                termPostings.renumber(newIds);
+            }
+
+            if (termPostings.size() == 0)
+            {
+                it.remove();
+            }
+            else
+            {
+                terms.add(entry.getKey());
+            }
+        }
+
+        Collections.sort(terms);
+
+        int[] termNodes = new int[terms.size()];
+        this.trie = CompactTrie.fromSortedTerms(terms, termNodes);
+
+        // Nodes are unchanged by adding the deletion index, so termNodes still holds the node of every term
+        if (DeletionIndex.isBuilt())
+        {
+            this.trie = this.trie.withDeletionIndex(DeletionIndex.MAX_DISTANCE);
+        }
+
+        // Lay out the posting lists in node order, so that the postings of a node are found by its index
+        PostingList[] postingsOfNode = new PostingList[this.trie.size()];
+        int total = 0;
+
+        for (int i = 0; i < terms.size(); ++i)
+        {
+            postingsOfNode[termNodes[i]] = this.postingsByTerm.get(terms.get(i));
+            total += postingsOfNode[termNodes[i]].size();
+        }
+
+        this.postingsFrom = new int[this.trie.size() + 1];
+        this.postings = new int[total];
+
+        int next = 0;
+
+        for (int node = 0; node < this.trie.size(); ++node)
+        {
+            this.postingsFrom[node] = next;
+
+            if (postingsOfNode[node] != null)
+            {
+                next = postingsOfNode[node].copyTo(this.postings, next);
+            }
+        }
+
+        this.postingsFrom[this.trie.size()] = next;
+
+        // Terms are ranked by the number of documents containing them
+        int[] frequencies = new int[terms.size()];
+
+        for (int i = 0; i < terms.size(); ++i)
+        {
+            frequencies[i] = this.postingsFrom[termNodes[i] + 1] - this.postingsFrom[termNodes[i]];
+        }
+
+        this.completions = CompletionIndex.build(this.trie, terms, termNodes, frequencies);
+
+        this.changed = false;
+    }
+
+    /*
+     * Gives the documents in the index IDs from 0 in the order they were first added, so that no ID is left unused
+     * and ties keep being broken the same way when documents are added again
+     * Returns the new ID of every old ID, -1 for the IDs of removed documents, or null if no ID was left unused
+     */
+    private int[] renumber()
+    {
+        if (this.docsById.size() == this.ids.size())
+        {
+            return null;
+        }
+
+        List<Document> docs = new ArrayList<>(this.ids.keySet());
+        docs.sort(Comparator.comparingLong(this.ranks::get));
+
+        int[] newIds = new int[this.docsById.size()];
+        Arrays.fill(newIds, -1);
+
+        this.docsById.clear();
+
+        for (int id = 0; id < docs.size(); ++id)
+        {
+            newIds[this.ids.put(docs.get(id), id)] = id;
+            this.docsById.add(docs.get(id));
+        }
+
+        return newIds;
+    }
+}
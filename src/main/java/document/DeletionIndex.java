@@ -0,0 +1,370 @@
+package document;
+
+/*
+ * IMPORTS
+ * package java.nio: Used for buffers that the index is read from, which may be memory-mapped files
+ * java.util.Arrays: Used to grow and sort arrays
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/*
+ * RESPONSIBILITIES
+ * - Represents a symmetric delete index of the terms of a CompactTrie (as in SymSpell), for fuzzy searches
+ *   within a small fixed distance
+ * - Maps the hash of every string obtained by deleting up to maxDistance characters from a term to the node of the term
+ * - Finds the terms within some distance of a pattern by looking up the deletions of the pattern, then checking
+ *   the distance of every term found, instead of traversing the whole trie
+ * Note that two strings are within distance d of each other only if deleting at most d characters from each
+ * can make them equal, so no term is missed; terms sharing a hash only by chance are dropped when checked.
+ */
+
+class DeletionIndex
+{
+    // Largest distance indexes are built for; searches within larger distances traverse the trie
+    static final int MAX_DISTANCE = 2;
+    // Longest terms whose deletions are indexed, as a term of length L has about L * L / 2 deletions of two characters
+    // Patterns are only looked up if every term within the distance searched is short enough to be indexed
+    static final int MAX_TERM_LENGTH = 32;
+
+    private static volatile boolean built = false;
+
+    private final int maxDistance;
+
+    // Parent of every node, so terms can be read back from their nodes (-1 for the root)
+    private final IntBuffer parents;
+    // Entries of bucket b are entries bucketsFrom[b] to bucketsFrom[b + 1] - 1, each a hash and the node of a term
+    private final IntBuffer bucketsFrom;
+    private final IntBuffer entryHashes;
+    private final IntBuffer entryNodes;
+
+    private DeletionIndex(int maxDistance, IntBuffer parents, IntBuffer bucketsFrom, IntBuffer entryHashes,
+                          IntBuffer entryNodes)
+    {
+        this.maxDistance = maxDistance;
+        this.parents = parents;
+        this.bucketsFrom = bucketsFrom;
+        this.entryHashes = entryHashes;
+        this.entryNodes = entryNodes;
+    }
+
+    /* Sets whether deletion indexes are built with new tries, trading index space for faster fuzzy searches */
+    static void setBuilt(boolean built)
+    {
+        DeletionIndex.built = built;
+    }
+
+    /* Returns true if deletion indexes are built with new tries */
+    static boolean isBuilt()
+    {
+        return built;
+    }
+
+    /* Builds the deletion index of the terms of a trie, for searches within up to maxDistance */
+    static DeletionIndex build(CompactTrie trie, int maxDistance)
+    {
+        int[] parents = new int[trie.size()];
+        parents[CompactTrie.ROOT] = -1;
+
+        for (int node = 0; node < trie.size(); ++node)
+        {
+            for (int child = trie.childrenFrom(node); child < trie.childrenTo(node); ++child)
+            {
+                parents[child] = node;
+            }
+        }
+
+        // Hashes and nodes of the entries in the order they are found, before they are laid out by bucket
+        int[][] found = {new int[16], new int[16]};
+        int[] foundCount = {0};
+
+        trie.forEachTermWithPrefix("", (termNode, term, distance) ->
+        {
+            if (term.length() > MAX_TERM_LENGTH)
+            {
+                return 0;
+            }
+
+            int[] hashes = deletionHashes(term, maxDistance);
+
+            for (int i = 0; i < hashes.length; ++i)
+            {
+                // Deletions of a term can be equal, e.g. deleting either 'l' of "all", so they are only indexed once
+                if (i > 0 && hashes[i] == hashes[i - 1])
+                {
+                    continue;
+                }
+
+                if (foundCount[0] == found[0].length)
+                {
+                    found[0] = Arrays.copyOf(found[0], 2 * foundCount[0]);
+                    found[1] = Arrays.copyOf(found[1], 2 * foundCount[0]);
+                }
+
+                found[0][foundCount[0]] = hashes[i];
+                found[1][foundCount[0]] = termNode;
+                ++foundCount[0];
+            }
+
+            return 0;
+        });
+
+        int entryCount = foundCount[0];
+
+        // About one entry per bucket
+        int bucketCount = Integer.highestOneBit(Math.max(entryCount, 1));
+        int[] bucketsFrom = new int[bucketCount + 1];
+
+        // Lay out the entries by bucket, counting the entries of every bucket first
+        for (int i = 0; i < entryCount; ++i)
+        {
+            ++bucketsFrom[bucketOf(found[0][i], bucketCount) + 1];
+        }
+
+        for (int b = 0; b < bucketCount; ++b)
+        {
+            bucketsFrom[b + 1] += bucketsFrom[b];
+        }
+
+        int[] next = Arrays.copyOf(bucketsFrom, bucketCount);
+        int[] entryHashes = new int[entryCount];
+        int[] entryNodes = new int[entryCount];
+
+        for (int i = 0; i < entryCount; ++i)
+        {
+            int entry = next[bucketOf(found[0][i], bucketCount)]++;
+
+            entryHashes[entry] = found[0][i];
+            entryNodes[entry] = found[1][i];
+        }
+
+        return new DeletionIndex(maxDistance, IntBuffer.wrap(parents), IntBuffer.wrap(bucketsFrom),
+                IntBuffer.wrap(entryHashes), IntBuffer.wrap(entryNodes));
+    }
+
+    /*
+     * Reads an index written with writeTo from a buffer, starting at some index, without copying it
+     * The buffer must already be in the byte order the index was written in
+     */
+    static DeletionIndex readFrom(ByteBuffer in, int from, int nodeCount, int maxDistance, int bucketCount, int entryCount)
+    {
+        int bucketsFrom = from + nodeCount * Integer.BYTES;
+        int entryHashesFrom = bucketsFrom + (bucketCount + 1) * Integer.BYTES;
+        int entryNodesFrom = entryHashesFrom + entryCount * Integer.BYTES;
+
+        return new DeletionIndex(maxDistance,
+                in.slice(from, nodeCount * Integer.BYTES).order(in.order()).asIntBuffer(),
+                in.slice(bucketsFrom, (bucketCount + 1) * Integer.BYTES).order(in.order()).asIntBuffer(),
+                in.slice(entryHashesFrom, entryCount * Integer.BYTES).order(in.order()).asIntBuffer(),
+                in.slice(entryNodesFrom, entryCount * Integer.BYTES).order(in.order()).asIntBuffer());
+    }
+
+    /* Writes the index to a buffer, in the format read by readFrom */
+    void writeTo(ByteBuffer out)
+    {
+        for (IntBuffer array : new IntBuffer[]{this.parents, this.bucketsFrom, this.entryHashes, this.entryNodes})
+        {
+            for (int i = 0; i < array.capacity(); ++i)
+            {
+                out.putInt(array.get(i));
+            }
+        }
+    }
+
+    /* Returns the size in bytes of a serialised index of a trie with some number of nodes */
+    static int serialisedSize(int nodeCount, int bucketCount, int entryCount)
+    {
+        return (nodeCount + bucketCount + 1 + 2 * entryCount) * Integer.BYTES;
+    }
+
+    /* Returns an estimate of the memory taken by the arrays of the index, in bytes */
+    long estimateSize()
+    {
+        return serialisedSize(this.parents.capacity(), this.bucketCount(), this.entryCount());
+    }
+
+    /* Returns the largest distance the index can be searched within */
+    int getMaxDistance()
+    {
+        return this.maxDistance;
+    }
+
+    int bucketCount()
+    {
+        return this.bucketsFrom.capacity() - 1;
+    }
+
+    int entryCount()
+    {
+        return this.entryHashes.capacity();
+    }
+
+    /* Returns true if every term within maxDistance of the pattern can be found in the index */
+    boolean canSearch(String pattern, int maxDistance)
+    {
+        // Terms within maxDistance are at most maxDistance characters longer than the pattern
+        return maxDistance <= this.maxDistance && pattern.length() + maxDistance <= MAX_TERM_LENGTH;
+    }
+
+    /*
+     * Passes the node of every term within maxDistance of the pattern to a consumer, with the distance of the term,
+     * in no particular order
+     * The index must be searchable for the pattern and maxDistance, as given by canSearch
+     */
+    void forEachTermNodeWithin(CompactTrie trie, String pattern, int patternIndex, int maxDistance,
+                               CompactTrie.TermNodeConsumer onTermNode)
+    {
+        int[] hashes = deletionHashes(pattern, maxDistance);
+
+        // Terms found, with duplicates if they share several deletions with the pattern
+        int[] candidates = new int[16];
+        int candidateCount = 0;
+
+        for (int i = 0; i < hashes.length; ++i)
+        {
+            if (i > 0 && hashes[i] == hashes[i - 1])
+            {
+                continue;
+            }
+
+            int bucket = bucketOf(hashes[i], this.bucketCount());
+
+            for (int entry = this.bucketsFrom.get(bucket); entry < this.bucketsFrom.get(bucket + 1); ++entry)
+            {
+                if (this.entryHashes.get(entry) != hashes[i])
+                {
+                    continue;
+                }
+
+                if (candidateCount == candidates.length)
+                {
+                    candidates = Arrays.copyOf(candidates, 2 * candidateCount);
+                }
+
+                candidates[candidateCount++] = this.entryNodes.get(entry);
+            }
+        }
+
+        Arrays.sort(candidates, 0, candidateCount);
+
+        DistanceKernel kernel = DistanceKernel.forPattern(pattern);
+        char[] term = new char[MAX_TERM_LENGTH];
+
+        for (int i = 0; i < candidateCount; ++i)
+        {
+            if (i > 0 && candidates[i] == candidates[i - 1])
+            {
+                continue;
+            }
+
+            // Check the actual distance of the term, which may only share a hash with the pattern by chance
+            int length = this.readTerm(trie, candidates[i], term);
+            boolean within = true;
+
+            for (int depth = 1; depth <= length && within; ++depth)
+            {
+                kernel.advance(depth, term[depth - 1]);
+                within = kernel.canMatchWithin(depth, maxDistance);
+            }
+
+            if (within && kernel.distance(length) <= maxDistance)
+            {
+                onTermNode.accept(patternIndex, candidates[i], kernel.distance(length));
+            }
+        }
+    }
+
+    /* Returns the term of a node */
+    String termOf(CompactTrie trie, int termNode)
+    {
+        char[] term = new char[MAX_TERM_LENGTH];
+
+        return new String(term, 0, this.readTerm(trie, termNode, term));
+    }
+
+    /* Reads the characters of the term of an indexed node into an array, returning the length of the term */
+    private int readTerm(CompactTrie trie, int termNode, char[] term)
+    {
+        int length = 0;
+
+        for (int node = termNode; node != CompactTrie.ROOT; node = this.parents.get(node))
+        {
+            ++length;
+        }
+
+        int i = length;
+
+        for (int node = termNode; node != CompactTrie.ROOT; node = this.parents.get(node))
+        {
+            term[--i] = trie.label(node);
+        }
+
+        return length;
+    }
+
+    /*
+     * Returns the sorted hashes of every string obtained by deleting up to maxDistance characters from some text,
+     * lowercased as terms are matched
+     * Hashes are computed while skipping the deleted characters, so the strings themselves are never built
+     */
+    private static int[] deletionHashes(CharSequence text, int maxDistance)
+    {
+        int length = text.length();
+        char[] chars = new char[length];
+
+        for (int i = 0; i < length; ++i)
+        {
+            chars[i] = Character.toLowerCase(text.charAt(i));
+        }
+
+        int[] hashes = new int[1 + (maxDistance >= 1 ? length : 0) + (maxDistance >= 2 ? length * (length - 1) / 2 : 0)];
+        int count = 0;
+
+        hashes[count++] = hash(chars, -1, -1);
+
+        for (int i = 0; i < length && maxDistance >= 1; ++i)
+        {
+            hashes[count++] = hash(chars, i, -1);
+
+            for (int j = i + 1; j < length && maxDistance >= 2; ++j)
+            {
+                hashes[count++] = hash(chars, i, j);
+            }
+        }
+
+        Arrays.sort(hashes);
+
+        return hashes;
+    }
+
+    /* Returns the hash of some characters without the characters at two indices (-1 to keep all) */
+    private static int hash(char[] chars, int skip, int otherSkip)
+    {
+        int h = 1;
+
+        for (int i = 0; i < chars.length; ++i)
+        {
+            if (i != skip && i != otherSkip)
+            {
+                h = 31 * h + chars[i];
+            }
+        }
+
+        // Spread the bits, as buckets are chosen by the lowest ones (finaliser of MurmurHash3)
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+
+        return h;
+    }
+
+    /* Returns the bucket of a hash, with a number of buckets that is a power of 2 */
+    private static int bucketOf(int hash, int bucketCount)
+    {
+        return hash & (bucketCount - 1);
+    }
+}
@@ -0,0 +1,349 @@
+package document;
+
+/*
+ * IMPORTS
+ * java.util.Arrays: Used to grow the buffers kept for every depth
+ */
+
+import java.util.Arrays;
+
+/*
+ * RESPONSIBILITIES
+ * - Computes the Levenshtein distance of a pattern from the terms of a trie, one character of the term at a time
+ * - Keeps the state of every depth of the current path, so a traversal can go back up the trie without recomputing
+ * - Comes in two kinds, selectable at runtime: a row of the dynamic programming matrix per depth, and a bit-parallel
+ * kernel (Myers' algorithm, as adapted by Hyyrö to edit distance) keeping a column in two longs per depth
+ * Note that matching is not case-sensitive.
+ */
+
+abstract class DistanceKernel
+{
+    // Longest pattern the bit-parallel kernel can match; longer patterns always use rows
+    static final int BIT_PARALLEL_MAX_LENGTH = Long.SIZE;
+
+    // Depths buffers are first allocated for; they grow with deeper terms
+    private static final int INITIAL_DEPTHS = 32;
+
+    private static volatile boolean bitParallel = true;
+
+    /* Sets whether patterns short enough are matched with the bit-parallel kernel rather than with rows */
+    static void setBitParallel(boolean bitParallel)
+    {
+        DistanceKernel.bitParallel = bitParallel;
+    }
+
+    /* Returns a kernel matching a pattern, of the kind currently selected */
+    static DistanceKernel forPattern(String pattern)
+    {
+        // Lowercased character by character, as the labels of the trie are, so the pattern keeps its length
+        char[] lowerChars = pattern.toCharArray();
+
+        for (int i = 0; i < lowerChars.length; ++i)
+        {
+            lowerChars[i] = Character.toLowerCase(lowerChars[i]);
+        }
+
+        String lowerPattern = new String(lowerChars);
+
+        if (bitParallel && !lowerPattern.isEmpty() && lowerPattern.length() <= BIT_PARALLEL_MAX_LENGTH)
+        {
+            return new BitParallel(lowerPattern);
+        }
+
+        return new Rows(lowerPattern);
+    }
+
+    /* Computes the state of a term at some depth (at least 1) from the state of its prefix at depth - 1 */
+    abstract void advance(int depth, char label);
+
+    /* Returns the distance of the pattern from the term at some depth */
+    abstract int distance(int depth);
+
+    /*
+     * Returns true if a term starting with the term at some depth can be within maxDistance of the pattern
+     * The minimum of the column of distances of the term from every prefix of the pattern is only a lower bound
+     * for the longer terms, which can only be further
+     */
+    abstract boolean canMatchWithin(int depth, int maxDistance);
+
+    /* Returns a capacity of at least some number of depths, doubling the current one */
+    static int grownCapacity(int capacity, int depth)
+    {
+        return Math.max(2 * capacity, depth + 1);
+    }
+
+    /*
+     * RESPONSIBILITIES
+     *   - Computes distances with a row of the dynamic programming matrix per depth
+     */
+    private static class Rows extends DistanceKernel
+    {
+        private final char[] pattern;
+
+        // Row of distances of the term at every depth from every prefix of the pattern, and its minimum
+        private int[][] rows;
+        private int[] mins;
+
+        Rows(String pattern)
+        {
+            this.pattern = pattern.toCharArray();
+            this.rows = new int[0][];
+            this.mins = new int[0];
+
+            this.ensureCapacity(INITIAL_DEPTHS);
+
+            // When we are at the root node we have 0 characters for the name string
+            // Therefore we need i insertions for the ith position of the row
+            for (int i = 0; i <= this.pattern.length; ++i)
+            {
+                this.rows[0][i] = i;
+            }
+
+            this.mins[0] = 0;
+        }
+
+        @Override
+        void advance(int depth, char label)
+        {
+            this.ensureCapacity(depth + 1);
+
+            int[] prevRow = this.rows[depth - 1];
+            int[] curRow = this.rows[depth];
+
+            // To lowercase to make matching non-case-sensitive
+            char currentPos = Character.toLowerCase(label);
+
+            curRow[0] = prevRow[0] + 1;
+            int min = curRow[0];
+
+            for (int i = 1; i <= this.pattern.length; ++i)
+            {
+                // Substitution cost is 1 if the two characters are different,
+                // 0 otherwise
+                int subCost = (currentPos != this.pattern[i - 1]) ? 1 : 0;
+
+                curRow[i] = Math.min(Math.min(prevRow[i] + 1, // Deletion
+                                curRow[i - 1] + 1 // Insertion
+                        ), prevRow[i - 1] + subCost // Substitution
+                );
+
+                min = Math.min(min, curRow[i]);
+            }
+
+            this.mins[depth] = min;
+        }
+
+        @Override
+        int distance(int depth)
+        {
+            // The last entry of the row is the distance of the whole pattern
+            return this.rows[depth][this.pattern.length];
+        }
+
+        @Override
+        boolean canMatchWithin(int depth, int maxDistance)
+        {
+            return this.mins[depth] <= maxDistance;
+        }
+
+        private void ensureCapacity(int depths)
+        {
+            if (depths <= this.rows.length)
+            {
+                return;
+            }
+
+            int capacity = grownCapacity(this.rows.length, depths - 1);
+            int oldCapacity = this.rows.length;
+
+            this.rows = Arrays.copyOf(this.rows, capacity);
+            this.mins = Arrays.copyOf(this.mins, capacity);
+
+            for (int depth = oldCapacity; depth < capacity; ++depth)
+            {
+                this.rows[depth] = new int[this.pattern.length + 1];
+            }
+        }
+    }
+
+    /*
+     * RESPONSIBILITIES
+     *   - Computes distances bit-parallel, keeping only the vertical differences of a column of the matrix per depth
+     *   - Bit i of vp (vn) is set if the distance from the first i + 1 characters of the pattern is one more (less)
+     *     than from the first i; the distance from the whole pattern is kept alongside
+     */
+    private static class BitParallel extends DistanceKernel
+    {
+        // Characters that can be looked up in a table rather than searched for
+        private static final int TABLE_SIZE = 256;
+
+        private final int length;
+        // Bits of the pattern, and bit of its last character
+        private final long mask;
+        private final long lastBit;
+
+        // Bits of the positions of every character in the pattern, for characters in the table and for the others
+        private final long[] tableMasks;
+        private final char[] otherChars;
+        private final long[] otherMasks;
+
+        private long[] vp;
+        private long[] vn;
+        private int[] distances;
+
+        BitParallel(String pattern)
+        {
+            this.length = pattern.length();
+            this.mask = (this.length == Long.SIZE) ? -1L : (1L << this.length) - 1;
+            this.lastBit = 1L << (this.length - 1);
+
+            this.tableMasks = new long[TABLE_SIZE];
+
+            StringBuilder others = new StringBuilder();
+
+            for (int i = 0; i < this.length; ++i)
+            {
+                char c = pattern.charAt(i);
+
+                if (c < TABLE_SIZE)
+                {
+                    this.tableMasks[c] |= 1L << i;
+                }
+                else if (others.indexOf(String.valueOf(c)) < 0)
+                {
+                    others.append(c);
+                }
+            }
+
+            this.otherChars = others.toString().toCharArray();
+            this.otherMasks = new long[this.otherChars.length];
+
+            for (int k = 0; k < this.otherChars.length; ++k)
+            {
+                for (int i = 0; i < this.length; ++i)
+                {
+                    if (pattern.charAt(i) == this.otherChars[k])
+                    {
+                        this.otherMasks[k] |= 1L << i;
+                    }
+                }
+            }
+
+            this.vp = new long[INITIAL_DEPTHS];
+            this.vn = new long[INITIAL_DEPTHS];
+            this.distances = new int[INITIAL_DEPTHS];
+
+            // The empty term is i insertions away from the first i characters of the pattern
+            this.vp[0] = this.mask;
+            this.vn[0] = 0;
+            this.distances[0] = this.length;
+        }
+
+        /* Returns the bits of the positions of a character in the pattern */
+        private long positionsOf(char c)
+        {
+            if (c < TABLE_SIZE)
+            {
+                return this.tableMasks[c];
+            }
+
+            for (int k = 0; k < this.otherChars.length; ++k)
+            {
+                if (this.otherChars[k] == c)
+                {
+                    return this.otherMasks[k];
+                }
+            }
+
+            return 0;
+        }
+
+        @Override
+        void advance(int depth, char label)
+        {
+            if (depth >= this.vp.length)
+            {
+                int capacity = grownCapacity(this.vp.length, depth);
+
+                this.vp = Arrays.copyOf(this.vp, capacity);
+                this.vn = Arrays.copyOf(this.vn, capacity);
+                this.distances = Arrays.copyOf(this.distances, capacity);
+            }
+
+            long prevVp = this.vp[depth - 1];
+            long prevVn = this.vn[depth - 1];
+
+            // To lowercase to make matching non-case-sensitive
+            long eq = this.positionsOf(Character.toLowerCase(label));
+
+            // Diagonal differences that are zero, then the horizontal differences of the new column
+            long x = eq | prevVn;
+            long d0 = ((((x & prevVp) + prevVp) ^ prevVp) | x) & this.mask;
+            long hn = prevVp & d0;
+            long hp = (prevVn | ~(prevVp | d0)) & this.mask;
+
+            int distance = this.distances[depth - 1];
+
+            if ((hp & this.lastBit) != 0)
+            {
+                ++distance;
+            }
+            else if ((hn & this.lastBit) != 0)
+            {
+                --distance;
+            }
+
+            // The distance from the empty prefix of the pattern grows by one with every character of the term
+            x = (hp << 1) | 1;
+
+            this.vn[depth] = x & d0 & this.mask;
+            this.vp[depth] = ((hn << 1) | ~(x | d0)) & this.mask;
+            this.distances[depth] = distance;
+        }
+
+        @Override
+        int distance(int depth)
+        {
+            return this.distances[depth];
+        }
+
+        @Override
+        boolean canMatchWithin(int depth, int maxDistance)
+        {
+            // The column starts at depth and ends at the distance from the whole pattern
+            if (depth <= maxDistance || this.distances[depth] <= maxDistance)
+            {
+                return true;
+            }
+
+            long vp = this.vp[depth];
+            long vn = this.vn[depth];
+
+            // Even if every decrease came first, the column could not get within maxDistance
+            if (depth - Long.bitCount(vn) > maxDistance)
+            {
+                return false;
+            }
+
+            // Walk down the column, only stopping at the bits where it changes
+            int distance = depth;
+            long changes = vp | vn;
+
+            while (changes != 0)
+            {
+                long bit = changes & -changes;
+
+                distance += ((vp & bit) != 0) ? 1 : -1;
+
+                if (distance <= maxDistance)
+                {
+                    return true;
+                }
+
+                changes ^= bit;
+            }
+
+            return false;
+        }
+    }
+}
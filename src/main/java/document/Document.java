@@ -5,7 +5,6 @@ package document;
  * package legal: For classes representing cases, clients and courts
  * packages java.io, java.nio: For I/O operations
  * java.util.Date: Represents Date objects  (e.g. assignment date)
- * java.util.List, LinkedList: Necessary to use linked lists
  * java.security: Used for hashing
  * java.math.BigInteger: Used to represent large numbers in hashing
  */
@@ -13,8 +12,6 @@ package document;
 import legal.LCase;
 import legal.LClient;
 import legal.LCourt;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.text.PDFTextStripper;
 
 import java.io.*;
 import java.math.BigInteger;
@@ -23,9 +20,6 @@ import java.nio.file.InvalidPathException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Date;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Scanner;
 
 /*
  * RESPONSIBILITIES
@@ -147,6 +141,23 @@ public class Document implements java.io.Serializable
         }
     }
 
+    /*
+     * Returns the contents of the file, hashed with 128-bit MurmurHash3, or null if the file cannot be read
+     * Files with the same contents have the same hash wherever they are, so it is useful to share serialised data
+     */
+    public String getContentHash()
+    {
+        try
+        {
+            return ContentHash.of(this.file);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     /* Returns the final full path for serialisation, stripped of the file extension */
     public String getSerialNameNoExt(String serialisationPath)
     {
@@ -184,134 +195,43 @@ public class Document implements java.io.Serializable
         return this.getSerialNameNoExt(serialisationPath) + ".attr";
     }
 
-    /* Returns all text in the file associated with this document*/
-    private String getFileText() throws IOException
+    /*
+     * Writes all text in the file associated with this document to a Writer, as it is extracted
+     * Useful to process the text without holding all of it in memory
+     */
+    void writeText(Writer out) throws IOException
     {
         // Call specialised method if file is PDF.
         if (getFileExtension(this.file).equals(".pdf"))
         {
-            return this.getPDFText(this.file);
+            this.writePDFText(this.file, out);
         }
 
-        // Read using java.util.Scanner if file is TXT.
+        // Copy the file through a Reader if file is TXT.
+        // Use UTF-8 encoding for Greek, Arabic, etc.
         if (getFileExtension(this.file).equals(".txt"))
         {
-            StringBuilder fileText = new StringBuilder();
-
-            try (Scanner in = new Scanner(this.file, StandardCharsets.UTF_8))
+            try (Reader in = new InputStreamReader(new FileInputStream(this.file), StandardCharsets.UTF_8))
             {
-                while (in.hasNext())
-                {
-                    // Insert space between words
-                    fileText.append(" ").append(in.next());
-                }
+                in.transferTo(out);
             }
-
-            return fileText.toString();
         }
-
-        return "";
     }
 
-    /* Extracts the text from a pdf file */
-    private String getPDFText(File file)
+    /*
+     * Extracts the text from a pdf file, writing it page by page
+     * Extracted text is cached on disc, so the file is only parsed again once it is modified
+     */
+    private void writePDFText(File file, Writer out) throws IOException
     {
         String fileExtension = getFileExtension(file);
 
         // Check file extension to ensure it is a pdf file
         if (fileExtension.equals(".pdf"))
         {
-            try
-            {
-                // Use Apache PDFBox for simple text extraction
-                PDDocument doc = PDDocument.load(file);
-                PDFTextStripper pdfStripper = new PDFTextStripper();
-
-                String text = pdfStripper.getText(doc);
-
-                doc.close();
-
-                return text;
-            }
-            catch (IOException e)
-            {
-                e.printStackTrace();
-            }
-        }
-
-        return "";
-    }
-
-    /*
-     * Returns a LinkedList containing all terms of the file.
-     * A "term" is comprised of one or more words.
-     * The "offset" is the number of words in the first term.
-     * e.g. if (input string) = "Fair is foul, and foul is fair: Hover through the fog and filthy air." (Macbeth, Act I, Scene I)
-     *         (words per term) = 3
-     *         (offset = 2),
-     *      the list will be {"Fair is", "foul, and foul", "is fair: Hover", "through the fog", "and filthy air."}
-     * Note that punctuation is not removed at this point.
-     */
-    public List<String> listTerms(int wordsPerTerm, int offset)
-    {
-        List<String> terms = new LinkedList<>();
-
-        offset %= wordsPerTerm; // Offset obviously cannot be greater than the number of words per term
-
-        // Convert file text to InputStream to read with Scanner
-        // Use UTF-8 encoding for Greek, Arabic, etc.
-        try (InputStream fileTextStream = new ByteArrayInputStream(this.getFileText().getBytes());
-             Scanner in = new Scanner(fileTextStream, StandardCharsets.UTF_8))
-        {
-            // Read offset words
-            for (int i = 0; i < offset; ++i)
-            {
-                if (!in.hasNext())
-                {
-                    return terms;
-                }
-
-                in.next();
-            }
-
-            // Loop breaks only when Scanner.hasNext is false
-            // It may occur during the nested iteration
-            while (true)
-            {
-                StringBuilder termToAdd = new StringBuilder();
-
-                // Iterate to get input for one term
-                for (int i = 0; i < wordsPerTerm; ++i)
-                {
-                    if (in.hasNext())
-                    {
-                        // Read next word
-                        String S = in.next().trim();
-
-                        if (S.isEmpty())
-                        {
-                            continue;
-                        }
-
-                        // Add word to term
-                        termToAdd.append(S).append(" ");
-                    }
-                    else
-                    {
-                        return terms;
-                    }
-                }
-
-                // Finally, add term to list
-                terms.add(termToAdd.toString());
-            }
-        }
-        catch (IOException e)
-        {
-            e.printStackTrace();
+            // Large files are split into page ranges extracted concurrently
+            TextCache.writeText(file, out, cacheOut -> PDFTextExtractor.writeText(file, cacheOut));
         }
-
-        return terms;
     }
 
     /* Returns a string for the full (absolute) path of the file associated with this Document */
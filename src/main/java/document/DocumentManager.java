@@ -3,12 +3,17 @@ package document;
 /*
  * IMPORTS
  * package legal: For classes representing cases, clients and courts
+ * javafx.util.Pair: Pairs the best matching term of a document with its distance from the query
  * packages java.io, java.nio: For I/O operations
  * package java.util: Used for collections, date handling and other utilities provided by Java
+ * package java.util.concurrent: Used to search documents on several threads
+ * java.util.function.IntConsumer: Used to pass tasks run for every index of a list
+ * java.util.function.Consumer: Used to pass documents changed on disc to be re-indexed
  * package org.nustaq.serialization: Provides a faster implementation of object serialisation/deserialisation
  */
 
 
+import javafx.util.Pair;
 import legal.LCase;
 import legal.LClient;
 import legal.LCourt;
@@ -21,6 +26,14 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 /*
  * RESPONSIBILITIES
@@ -33,10 +46,15 @@ public class DocumentManager
     public static final String SERIALISATION_PATH = System.getProperty("user.home") + "/Downloads/serial/docs/";
     // Name for serialised documents
     public static final String SERIALISATION_NAME = "documents";
+    // Default memory budget for loaded tries kept between searches, in bytes
+    public static final long MATCHER_CACHE_BUDGET = Runtime.getRuntime().maxMemory() / 4;
 
     // Names and files of documents currently managed in a set to quickly check for duplicates
     private final Set<String> docNames;
     private final Set<File> docFiles;
+    // Documents currently managed, by identity, locked while one is added to or removed from the corpus index,
+    // so that the watcher thread never adds a document to the index once it has been removed
+    private final Set<Document> managedDocs;
 
     // Used for the same purpose as docNames and docFiles, i.e. duplicate checking
     // It is not a set because it is convenient for cases/clients/courts to map objects with their names
@@ -47,20 +65,115 @@ public class DocumentManager
 
     // List of all documents managed
     private List<Document> docs;
+    // Documents sorted by every category, and the category docs is sorted by, or null if it is not sorted
+    private final SortedViews sortedViews;
+    private Class<?> sortedBy;
+
+    // Substrings of the names and details of all documents, so filtering does not compare every document,
+    // and the documents of every case, client, court and date of assignment
+    private final MetadataIndex metadataIndex;
+    // Term dictionary for all documents, so a query is answered with a single traversal
+    private final CorpusIndex corpusIndex;
+    // Whether searches go through the corpus index, or through the trie of every document in turn
+    private boolean corpusIndexUsed;
+    // Tries loaded when searching every document in turn, kept for the next searches
+    private final MatcherCache matcherCache;
+    // Executor that documents are fanned out to when searching and indexing them
+    private ExecutorService searchExecutor;
+    // Re-indexes documents in the background when their files change, or null if files cannot be watched
+    private final DocumentWatcher docWatcher;
+    // Documents loaded at startup whose tries have not been checked yet
+    private final Set<Document> docsToValidate;
+    // Whether tries are being checked in the background, in which case documents still to check are not searched
+    private volatile boolean validating;
 
     public DocumentManager()
     {
         this.docs = new ArrayList<>();
+        this.sortedViews = new SortedViews();
+        this.sortedBy = null;
 
         this.docNames = new HashSet<>();
         this.docFiles = new HashSet<>();
+        this.managedDocs = Collections.newSetFromMap(new IdentityHashMap<>());
 
         this.lCases = new LinkedHashMap<>();
         this.lClients = new LinkedHashMap<>();
         this.lCourts = new LinkedHashMap<>();
 
+        this.metadataIndex = new MetadataIndex();
+        this.corpusIndex = new CorpusIndex();
+        this.corpusIndexUsed = true;
+        this.matcherCache = new MatcherCache(MATCHER_CACHE_BUDGET);
+        // Work-stealing pool with one thread per core by default
+        this.searchExecutor = ForkJoinPool.commonPool();
+        this.docWatcher = createDocWatcher(this::reindexChangedDocument);
+        this.docsToValidate = ConcurrentHashMap.newKeySet();
+        this.validating = false;
+
         // Deserialise documents and config if they exist
         this.addFromSerialised();
+
+        if (this.docWatcher != null)
+        {
+            this.docWatcher.start();
+        }
+    }
+
+    /* Creates a watcher for the files of documents, returning null if files cannot be watched on this system */
+    private static DocumentWatcher createDocWatcher(Consumer<Document> onChanged)
+    {
+        try
+        {
+            return new DocumentWatcher(onChanged);
+        }
+        catch (IOException | UnsupportedOperationException e)
+        {
+            // Changes are still picked up when searching, only not in advance
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /*
+     * Rebuilds the trie of a document whose file has changed, and updates the index with it
+     * Called on the watcher thread, so the next search finds an up-to-date index instead of rebuilding it
+     */
+    private void reindexChangedDocument(Document doc)
+    {
+        DocumentMatcher docMatcher;
+
+        if (doc.getFile().exists())
+        {
+            // The constructor rebuilds the trie if it is out-of-date
+            docMatcher = new DocumentMatcher(doc);
+        }
+        else
+        {
+            // File was moved or deleted, so the document matches nothing until it is back
+            DocumentMatcher.deleteSerialisedTrie(doc);
+            docMatcher = new DocumentMatcher();
+        }
+
+        synchronized (this.managedDocs)
+        {
+            // Document may have been removed while its trie was being rebuilt
+            if (!this.managedDocs.contains(doc))
+            {
+                return;
+            }
+
+            // Loaded again from the rebuilt trie the next time it is needed
+            this.matcherCache.remove(doc);
+
+            if (this.corpusIndexUsed)
+            {
+                this.corpusIndex.add(doc, docMatcher);
+            }
+
+            // Trie is now up-to-date, so it does not need checking at startup
+            this.docsToValidate.remove(doc);
+        }
     }
 
     /* Creates a directory for serialisation purposes */
@@ -137,201 +250,472 @@ public class DocumentManager
      */
     public Map<String, List<Document>> search(String[] searchQueries, int maxDistance)
     {
+        if (this.corpusIndexUsed)
+        {
+            return this.searchCorpusIndex(searchQueries, maxDistance);
+        }
+
+        return this.searchEachDocument(searchQueries, maxDistance);
+    }
+
+    /*
+     * Searches for matches of an array of queries with a single traversal of the corpus index
+     * Phrases are then checked against the word positions of only the documents containing all their words
+     */
+    private Map<String, List<Document>> searchCorpusIndex(String[] searchQueries, int maxDistance)
+    {
+        this.updateCorpusIndex();
+
+        List<Set<Document>> queryMatches = this.corpusIndex.search(searchQueries, maxDistance);
+
+        for (int i = 0; i < searchQueries.length; ++i)
+        {
+            if (DocumentMatcher.listWords(searchQueries[i]).length > 1)
+            {
+                this.retainPhraseMatches(searchQueries[i], maxDistance, queryMatches.get(i));
+            }
+        }
+
         // Map queries to matching documents
         Map<String, List<Document>> results = new HashMap<>();
-        DocumentMatcher docMatcher;
 
-        // Iterate over every document for search
-        for (Document doc : this.docs)
+        for (int i = 0; i < searchQueries.length; ++i)
         {
-            docMatcher = new DocumentMatcher(doc);
+            String searchQuery = searchQueries[i];
+            Set<Document> matches = queryMatches.get(i);
 
-            for (String searchQuery : searchQueries)
+            if (matches.isEmpty())
             {
-                // Check every query for match
-                if (docMatcher.matches(searchQuery, maxDistance))
+                continue;
+            }
+
+            // List matches in the same order as the documents of this DocumentManager
+            List<Document> queryResults = new LinkedList<>();
+
+            for (Document doc : this.docs)
+            {
+                if (matches.contains(doc))
+                {
+                    queryResults.add(doc);
+                }
+            }
+
+            results.put(searchQuery, queryResults);
+        }
+
+        return results;
+    }
+
+    /* Removes the documents that do not have the words of a phrase at consecutive positions from a set */
+    private void retainPhraseMatches(String phrase, int maxDistance, Set<Document> candidates)
+    {
+        List<Document> toCheck = new ArrayList<>(candidates);
+        boolean[] matched = new boolean[toCheck.size()];
+
+        // Only loaded from disc if they have not been used recently
+        this.runForEachIndex(toCheck.size(), i -> matched[i] = this.matcherCache.get(toCheck.get(i)).matches(phrase, maxDistance));
+
+        for (int i = 0; i < toCheck.size(); ++i)
+        {
+            if (!matched[i])
+            {
+                candidates.remove(toCheck.get(i));
+            }
+        }
+    }
+
+    /* Adds the documents missing from the corpus index, or modified since they were added to it */
+    private void updateCorpusIndex()
+    {
+        List<Document> toAdd = new ArrayList<>();
+
+        for (Document doc : this.listSearchableDocuments())
+        {
+            if (!this.corpusIndex.isUpToDate(doc))
+            {
+                toAdd.add(doc);
+            }
+        }
+
+        DocumentMatcher[] loaded = new DocumentMatcher[toAdd.size()];
+
+        // Tries are loaded in parallel
+        // The constructor also rebuilds the trie of the document if it is out-of-date
+        this.runForEachIndex(toAdd.size(), i -> loaded[i] = new DocumentMatcher(toAdd.get(i)));
+
+        // Documents are added in order, so their IDs in the index do not depend on which trie loaded first
+        synchronized (this.managedDocs)
+        {
+            for (int i = 0; i < toAdd.size(); ++i)
+            {
+                // Searches may run off the thread documents are removed on
+                if (loaded[i] != null && this.managedDocs.contains(toAdd.get(i)))
+                {
+                    this.corpusIndex.add(toAdd.get(i), loaded[i]);
+                }
+            }
+        }
+    }
+
+    /*
+     * Returns the documents that can be searched without building their tries first
+     * While tries are checked in the background, documents still to check are left out rather than rebuilt during the search
+     */
+    private List<Document> listSearchableDocuments()
+    {
+        List<Document> searchable = new ArrayList<>(this.docs);
+
+        if (this.validating)
+        {
+            searchable.removeIf(this.docsToValidate::contains);
+        }
+
+        return searchable;
+    }
+
+    /*
+     * Checks the tries of the documents loaded at startup, rebuilding those that are out-of-date, on the calling thread
+     * Documents are searched as soon as their tries are checked
+     * Documents not checked, e.g. if this is never called, are checked when they are first searched instead
+     */
+    public void validateIndexes(IndexingPipeline pipeline)
+    {
+        this.validating = true;
+
+        try
+        {
+            pipeline.setDocumentListener(this.docsToValidate::remove);
+            pipeline.validate(new ArrayList<>(this.docsToValidate));
+        }
+        finally
+        {
+            this.validating = false;
+        }
+    }
+
+    /* Returns true if documents loaded at startup have tries that have not been checked yet */
+    public boolean hasDocumentsToValidate()
+    {
+        return !this.docsToValidate.isEmpty();
+    }
+
+    /* Searches for matches of an array of queries by matching against the trie of every document in turn */
+    private Map<String, List<Document>> searchEachDocument(String[] searchQueries, int maxDistance)
+    {
+        List<Document> toSearch = this.listSearchableDocuments();
+
+        // matched[i][j] is true if the ith document matches the jth query
+        boolean[][] matched = new boolean[toSearch.size()][];
+
+        // Documents are independent of each other, so they are matched in parallel
+        this.runForEachIndex(toSearch.size(), i ->
+        {
+            // Only loaded from disc if it has not been used recently
+            DocumentMatcher docMatcher = this.matcherCache.get(toSearch.get(i));
+
+            // All queries are matched in one traversal of the trie
+            matched[i] = docMatcher.matchesAll(searchQueries, maxDistance);
+        });
+
+        // Map queries to matching documents
+        Map<String, List<Document>> results = new HashMap<>();
+
+        // Merge in document order, so results are listed in the same order whatever order the documents finished in
+        for (int i = 0; i < toSearch.size(); ++i)
+        {
+            for (int j = 0; j < searchQueries.length; ++j)
+            {
+                // Documents whose search failed do not match
+                if (matched[i] != null && matched[i][j])
                 {
                     // If results already have documents matching the query, simply add to the already existing list
-                    if (results.containsKey(searchQuery))
+                    if (results.containsKey(searchQueries[j]))
                     {
-                        results.get(searchQuery).add(doc);
+                        results.get(searchQueries[j]).add(toSearch.get(i));
                     }
                     else
                     {
                         List<Document> queryResults = new LinkedList<>();
-                        queryResults.add(doc);
+                        queryResults.add(toSearch.get(i));
 
-                        results.put(searchQuery, queryResults);
+                        results.put(searchQueries[j], queryResults);
                     }
                 }
             }
         }
 
-        // Return immutable version of the list of matching documents
         return results;
     }
 
     /*
-     * Sorts the document list of this object by the category given by user.
-     * Category should be one of the following.
-     *      - Document.class (sorting by document name)
-     *      - LCase.class (sorting by case name)
-     *      - LClient.class (sorting by court name)
-     *      - Date.class (sorting by date of assignment)
+     * Returns up to n completions of the last word of a search string, as the whole search string with that word
+     * completed, the completions of the terms found in the most documents first
+     * Completions are served from the corpus index without loading any trie, so there are none if it is not used
      */
-    public void sortByCategory(Class<?> category)
+    public List<String> complete(String searchQuery, int n)
     {
-        // Do not sort if there are no documents
-        if (!this.hasDocuments())
+        // Nothing to complete until a word is started
+        if (searchQuery == null || searchQuery.isEmpty() || Character.isWhitespace(searchQuery.charAt(searchQuery.length() - 1)))
         {
-            return;
+            return new ArrayList<>();
         }
 
-        // Create a new list to be sorted, as original list should not be modified until sorting is done
-        List<Document> sorted = new ArrayList<>(this.docs);
+        int wordFrom = searchQuery.length();
 
-        if (category != Document.class
-                && category != LCase.class
-                && category != LClient.class
-                && category != LCourt.class
-                && category != Date.class)
+        while (wordFrom > 0 && !Character.isWhitespace(searchQuery.charAt(wordFrom - 1)))
         {
-            throw new IllegalArgumentException("'" + category.toString() + "': no such LCategory");
+            --wordFrom;
+        }
+
+        String[] lastWord = DocumentMatcher.listWords(searchQuery.substring(wordFrom));
+
+        if (!this.corpusIndexUsed || lastWord.length == 0)
+        {
+            return new ArrayList<>();
         }
 
-        this.quicksort(sorted, 0, sorted.size() - 1, category);
+        List<String> completions = new ArrayList<>();
+
+        for (String term : this.corpusIndex.complete(lastWord[0], n))
+        {
+            completions.add(searchQuery.substring(0, wordFrom) + term);
+        }
 
-        // Set this.docs to the sorted list
-        this.docs = sorted;
+        return completions;
     }
 
-    /* Implementation of quicksort for O(log n) sorting */
-    private void quicksort(List<Document> toSort, int l, int r, Class<?> category)
+    /* Returns the best matches of a query, closest first, with default tolerance (maxDistance) and number of results */
+    public List<SearchResult> searchRanked(String searchQuery)
     {
-        if (l < r)
+        return this.searchRanked(searchQuery, 2, 50);
+    }
+
+    /*
+     * Returns the k documents best matching a query, closest first, with their distances and best matching terms
+     * Only the best k results are kept while searching, and the search stops once k exact matches are found
+     */
+    public List<SearchResult> searchRanked(String searchQuery, int maxDistance, int k)
+    {
+        if (searchQuery == null)
+        {
+            searchQuery = "";
+        }
+
+        if (this.corpusIndexUsed)
         {
-            // Divide-and-conquer design
-            int split = this.partition(toSort, l, r, category);
+            this.updateCorpusIndex();
+
+            if (DocumentMatcher.listWords(searchQuery).length <= 1)
+            {
+                return this.corpusIndex.searchRanked(searchQuery, maxDistance, k);
+            }
+
+            // Phrases are ranked by the matchers of the documents containing all their words, in document order
+            Set<Document> candidates = this.corpusIndex.search(searchQuery, maxDistance);
+            List<Document> toSearch = new ArrayList<>(this.listSearchableDocuments());
 
-            // Recursively sort sub-arrays
-            this.quicksort(toSort, l, split - 1, category);
-            this.quicksort(toSort, split + 1, r, category);
+            toSearch.retainAll(candidates);
+
+            return this.searchEachDocumentRanked(toSearch, searchQuery, maxDistance, k);
         }
+
+        return this.searchEachDocumentRanked(this.listSearchableDocuments(), searchQuery, maxDistance, k);
     }
 
-    /* Partitions arrays into two sub-arrays such that the elements in one are of lower order than all in the other */
-    private int partition(List<Document> toSort, int l, int r, Class<?> category)
+    /* Returns the k documents best matching a query by matching against the trie of every document in turn */
+    private List<SearchResult> searchEachDocumentRanked(List<Document> toSearch, String searchQuery, int maxDistance, int k)
     {
-        // Logic behind code below outlined & explained in pseudocode in the Design stage
-        Document curDoc = toSort.get(r);
-        int index = l - 1;
+        SearchResult[] best = new SearchResult[toSearch.size()];
+
+        // Once k documents match exactly, the documents after the k-th of them cannot be among the k best, whatever
+        // order the documents are searched in, so they are skipped
+        PriorityQueue<Integer> firstExactMatches = new PriorityQueue<>(Comparator.reverseOrder());
+        AtomicInteger lastNeeded = new AtomicInteger(Integer.MAX_VALUE);
 
-        for (int i = l; i < r; ++i)
+        this.runForEachIndex(toSearch.size(), i ->
         {
-            Document indexDoc = toSort.get(i);
+            if (i > lastNeeded.get())
+            {
+                return;
+            }
 
-            LCase curCase = curDoc.getCase();
-            LCase indexCase = indexDoc.getCase();
+            Pair<String, Integer> match = this.matcherCache.get(toSearch.get(i)).bestMatch(searchQuery, maxDistance);
 
-            // If sorting by date
-            if (category == Date.class)
+            if (match != null)
             {
-                // Start with default date
-                Date curDate = new Date(0);
-                Date indexDate = new Date(0);
+                best[i] = new SearchResult(toSearch.get(i), match.getKey(), match.getValue());
 
-                if (curCase != null)
+                if (match.getValue() == 0)
                 {
-                    // Change date to that of curCase
-                    curDate = curCase.getDateAssigned();
-                }
+                    synchronized (firstExactMatches)
+                    {
+                        firstExactMatches.add(i);
 
-                if (indexCase != null)
-                {
-                    // Change date to that of indexCase
-                    indexDate = indexCase.getDateAssigned();
-                }
+                        if (firstExactMatches.size() > k)
+                        {
+                            firstExactMatches.poll();
+                        }
 
-                // Swap documents if needed
-                if (indexDate.compareTo(curDate) > 0
-                        || (indexDate.compareTo(curDate) == 0
-                        && indexDoc.getName().compareTo(curDoc.getName()) <= 0))
-                {
-                    index += 1; // Move on to next document
-                    Collections.swap(toSort, index, i);
+                        if (k > 0 && firstExactMatches.size() == k)
+                        {
+                            lastNeeded.set(firstExactMatches.peek());
+                        }
+                    }
                 }
             }
-            else
+        });
+
+        // Ties are broken by document order
+        TopResults top = new TopResults(k);
+
+        for (int i = 0; i < best.length; ++i)
+        {
+            if (best[i] != null)
             {
-                // Start with default values
-                String curName = "";
-                String indexName = "";
+                top.offer(i, best[i].getDocument(), best[i].getMatchedTerm(), best[i].getDistance());
+            }
+        }
 
-                if (category == Document.class)
-                {
-                    // Change names to that of the documents
-                    curName = curDoc.getName();
-                    indexName = indexDoc.getName();
-                }
-                else if (category == LCase.class)
-                {
-                    // Change name to that of the cases, if possible
-                    if (curCase != null)
-                    {
-                        curName = curCase.getName();
-                    }
-                    if (indexCase != null)
-                    {
-                        indexName = indexCase.getName();
-                    }
-                }
-                else if (category == LClient.class)
-                {
-                    // Change name to that of the client, if possible
-                    if (curCase != null && curCase.getClient() != null)
-                    {
-                        curName = curCase.getClient().getName();
-                    }
-                    if (indexCase != null && indexCase.getClient() != null)
-                    {
-                        indexName = indexCase.getClient().getName();
-                    }
-                }
-                else if (category == LCourt.class)
-                {
-                    // Change name to that of the court, if possible
-                    if (curCase != null && curCase.getCourt() != null)
-                    {
-                        curName = curCase.getCourt().getName();
-                    }
-                    if (indexCase != null && indexCase.getCourt() != null)
-                    {
-                        indexName = indexCase.getCourt().getName();
-                    }
-                }
+        return top.toList();
+    }
 
-                // Swap documents if needed
-                if (indexName.compareTo(curName) < 0
-                        || (indexName.compareTo(curName) == 0 && indexDoc.getName().compareTo(curDoc.getName()) <= 0))
-                {
-                    index += 1; // Move on to next document
-                    Collections.swap(toSort, index, i);
-                }
+    /* Runs a task for every index from 0 to count - 1 on the search executor, returning once all have finished */
+    private void runForEachIndex(int count, IntConsumer task)
+    {
+        List<Future<?>> futures = new ArrayList<>(count);
+
+        for (int i = 0; i < count; ++i)
+        {
+            int index = i;
+            futures.add(this.searchExecutor.submit(() -> task.accept(index)));
+        }
+
+        for (Future<?> future : futures)
+        {
+            try
+            {
+                future.get();
+            }
+            catch (ExecutionException e)
+            {
+                // A failure for one index should not stop the others
+                e.printStackTrace();
+            }
+            catch (InterruptedException e)
+            {
+                // Stop waiting, but let the caller see the interruption
+                Thread.currentThread().interrupt();
+                return;
             }
         }
+    }
+
+    /*
+     * Sets whether searches go through the corpus index
+     * Searching every document in turn is slower, but does not keep the terms of all documents in memory
+     */
+    public void setCorpusIndexUsed(boolean corpusIndexUsed)
+    {
+        this.corpusIndexUsed = corpusIndexUsed;
+    }
 
-        Collections.swap(toSort, index + 1, r);
+    /*
+     * Sets the executor that documents are fanned out to when searching and indexing them
+     * An executor with a single thread makes searches sequential
+     */
+    public void setSearchExecutor(ExecutorService searchExecutor)
+    {
+        this.searchExecutor = searchExecutor;
+    }
 
-        return index + 1; // Return partition index
+    /* Sets the memory budget, in bytes, for tries kept in memory between searches of every document in turn */
+    public void setMatcherCacheBudget(long budget)
+    {
+        this.matcherCache.setBudget(budget);
+    }
+
+    /*
+     * Sets whether fuzzy searches compute distances bit-parallel, for search strings of up to 64 characters,
+     * or with a row of distances per character, e.g. to compare the two
+     */
+    public void setBitParallelMatching(boolean bitParallel)
+    {
+        DistanceKernel.setBitParallel(bitParallel);
+    }
+
+    /*
+     * Sets whether tries are built with a deletion index, answering fuzzy searches within small distances by lookup
+     * Indexes take several times the space of the tries, so they are not built by default
+     */
+    public void setDeletionIndexUsed(boolean used)
+    {
+        DeletionIndex.setBuilt(used);
+    }
+
+    /*
+     * Sets the maximum number of threads extracting page ranges of large PDF files, shared by all files
+     * Keeps one very large file from taking every core while other documents are indexed
+     */
+    public void setPDFExtractionThreads(int maxThreads)
+    {
+        PDFTextExtractor.setMaxThreads(maxThreads);
+    }
+
+    /* Sets the budget, in bytes, for text extracted from PDF files and cached on disc */
+    public void setTextCacheBudget(long budget)
+    {
+        TextCache.setBudget(budget);
+    }
+
+    /*
+     * Sorts the document list of this object by the category given by user.
+     * Category should be one of the following.
+     *      - Document.class (sorting by document name)
+     *      - LCase.class (sorting by case name)
+     *      - LClient.class (sorting by client name)
+     *      - LCourt.class (sorting by court name)
+     *      - Date.class (sorting by date of assignment, latest first)
+     * Documents are kept sorted by every category as they are added, removed and updated, so nothing is compared here
+     */
+    public void sortByCategory(Class<?> category)
+    {
+        // Do not sort if there are no documents
+        if (!this.hasDocuments())
+        {
+            return;
+        }
+
+        if (!SortedViews.isCategory(category))
+        {
+            throw new IllegalArgumentException("'" + category.toString() + "': no such LCategory");
+        }
+
+        // Already sorted, e.g. if sorting by the same category twice
+        if (category == this.sortedBy)
+        {
+            return;
+        }
+
+        this.docs = this.sortedViews.list(category);
+        this.sortedBy = category;
     }
 
     /*
      * Closing procedure for the DocumentManager
-     * Current responsibilities only include document serialisation, but can be expanded to run any required procedure
+     * Current responsibilities include stopping the document watcher, document serialisation and deleting unused tries,
+     * but can be expanded to run any required procedure
      */
     public void close()
     {
+        if (this.docWatcher != null)
+        {
+            this.docWatcher.close();
+        }
+
         this.serialiseDocuments();
+
+        // Tries of removed documents are no longer needed
+        DocumentMatcher.deleteUnusedTries(this.docs);
     }
 
     /* Deletes document and file associated with it */
@@ -355,6 +739,24 @@ public class DocumentManager
         this.docs.remove(doc);
         this.docNames.remove(doc.getName());
         this.docFiles.remove(doc.getFile());
+
+        if (this.docWatcher != null)
+        {
+            this.docWatcher.unwatch(doc);
+        }
+
+        this.metadataIndex.remove(doc);
+        this.sortedViews.remove(doc);
+
+        synchronized (this.managedDocs)
+        {
+            this.managedDocs.remove(doc);
+            this.docsToValidate.remove(doc);
+            this.corpusIndex.remove(doc);
+            this.matcherCache.remove(doc);
+        }
+
+        TextCache.remove(doc.getFile());
     }
 
     /* Adds document to this DocumentManager */
@@ -375,9 +777,26 @@ public class DocumentManager
             this.docFiles.add(doc.getFile());
             this.docNames.add(doc.getName());
 
+            synchronized (this.managedDocs)
+            {
+                this.managedDocs.add(doc);
+            }
+
             // Add case details
             this.addCase(doc.getCase());
 
+            this.metadataIndex.add(doc);
+            this.sortedViews.add(doc);
+
+            // New documents are added at the end, so the list is no longer sorted
+            this.sortedBy = null;
+
+            // Re-index in the background whenever the file changes
+            if (this.docWatcher != null)
+            {
+                this.docWatcher.watch(doc);
+            }
+
             return true; // Successful execution
         }
         else
@@ -411,6 +830,56 @@ public class DocumentManager
                 && !this.docNames.contains(doc.getName());
     }
 
+    /*
+     * Updates the name and details of a document kept for filtering, after they have been changed
+     * Must be called for every document whose name, case, client or court has been changed or renamed,
+     * or whose case has been assigned on another date
+     */
+    public void updateDocumentDetails(Document doc)
+    {
+        this.metadataIndex.update(doc);
+        this.sortedViews.update(doc);
+
+        // Changed details may move the document in the order the list is sorted in
+        this.sortedBy = null;
+    }
+
+    /*
+     * Returns the documents whose name, or the name of whose case, client or court, contains some text, ignoring case
+     * Category should be one of Document.class, LCase.class, LClient.class or LCourt.class
+     */
+    public Set<Document> filterByCategory(Class<?> category, String text)
+    {
+        return this.metadataIndex.filter(category, text);
+    }
+
+    /* Returns the documents of a case, without going through every document */
+    public List<Document> listDocumentsOf(LCase lCase)
+    {
+        return this.metadataIndex.listDocumentsOf(lCase);
+    }
+
+    /* Returns the documents of a client, without going through every document */
+    public List<Document> listDocumentsOf(LClient lClient)
+    {
+        return this.metadataIndex.listDocumentsOf(lClient);
+    }
+
+    /* Returns the documents of a court, without going through every document */
+    public List<Document> listDocumentsOf(LCourt lCourt)
+    {
+        return this.metadataIndex.listDocumentsOf(lCourt);
+    }
+
+    /*
+     * Returns the documents whose cases were assigned from one date to another, both included, earliest first
+     * Either date may be null to leave the range open on that side
+     */
+    public List<Document> listDocumentsAssignedBetween(Date from, Date to)
+    {
+        return this.metadataIndex.listDocumentsAssignedBetween(from, to);
+    }
+
     /* Returns a list of all documents currently in the manager */
     public List<Document> listDocuments()
     {
@@ -575,8 +1044,11 @@ public class DocumentManager
             // Add all documents
             for (Document doc : deserialisedDocs)
             {
-                // Re-serialise to update any out-of-date document tries
-                this.addAndSerialiseDocument(doc);
+                // Out-of-date document tries are only rebuilt by validateIndexes, so startup does not wait for them
+                if (this.addDocument(doc))
+                {
+                    this.docsToValidate.add(doc);
+                }
             }
         }
     }
@@ -3,38 +3,39 @@ package document;
 /*
  * IMPORTS
  * javafx.util.Pair: Pairs two items together; useful for pairing strings and their distance from the pattern
- * packages java.io: For I/O operations
+ * packages java.io, java.nio: For I/O operations
  * package java.util: Used for collections, date handling and other utilities provided by Java
- * package org.nustaq.serialization: Provides a faster implementation of object serialisation/deserialisation
+ * java.util.function.Consumer: Used to pass the terms of the trie to the caller
  */
 
 
 import javafx.util.Pair;
-import org.nustaq.serialization.FSTObjectInput;
-import org.nustaq.serialization.FSTObjectOutput;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.function.Consumer;
 
 /*
  * RESPONSIBILITIES
  * - Represents a trie searchable with Levenshtein distance
+ * - Matches phrases of any number of words by the positions of their words in the document
  */
 
 public class DocumentMatcher
 {
-    // Maximum words per search string
-    public static final int SEARCH_WORDS_MAX = 2;
+    // Words per term of the trie; phrases are matched word by word, by the positions of their words
+    private static final int WORDS_PER_TERM = 1;
     // Path for serialised tries
     public static final String SERIALISATION_PATH = System.getProperty("user.home") + "/Downloads/serial/matchers/";
 
-    // Trie nodes
-    List<Node> nodes;
+    // Flat representation of the trie used for searching
+    private final CompactTrie trie;
 
+    // Creates a matcher with an empty trie
     public DocumentMatcher()
     {
-        // Prefer ArrayList implementation for List because of quick indexing
-        this.nodes = new ArrayList<>();
+        this(CompactTrie.fromSortedTerms(Collections.emptyList()));
     }
 
     public DocumentMatcher(Document doc)
@@ -46,30 +47,51 @@ public class DocumentMatcher
         }
 
         // Document is now guaranteed to have been serialised successfully
-        this.nodes = deserialiseTrieOf(doc);
+        CompactTrie recovered = deserialiseTrieOf(doc);
+
+        // Tries serialised before deletion indexes were enabled are given one, so they are not rebuilt from the file
+        if (recovered != null && DeletionIndex.isBuilt() && !recovered.hasDeletionIndex())
+        {
+            recovered = recovered.withDeletionIndex(DeletionIndex.MAX_DISTANCE);
+            serialiseTrieOf(doc, recovered);
+        }
+
+        // A trie that could not be recovered is treated as empty
+        this.trie = (recovered != null) ? recovered : CompactTrie.fromSortedTerms(Collections.emptyList());
     }
 
-    /* Restores pre-built DocumentMatcher object if serialised and up-to-date */
-    public static List<Node> deserialiseTrieOf(Document doc)
+    // Package-private so tries can be built and searched without going through the serialisation path
+    DocumentMatcher(CompactTrie trie)
+    {
+        this.trie = trie;
+    }
+
+    /*
+     * Restores pre-built trie if serialised and up-to-date
+     * The serialised trie is memory-mapped from the trie store and searched in place, so nothing is deserialised
+     */
+    static CompactTrie deserialiseTrieOf(Document doc)
     {
-        // Full name for serialised file
-        String serialName = doc.getSerialFilename(SERIALISATION_PATH) + "_DM";
+        TrieStore store = openStore();
+        String contentHash = contentHashOf(doc);
 
-        try (InputStream fSer = new FileInputStream(serialName);
-             FSTObjectInput inSer = new FSTObjectInput(fSer))
+        // Only deserialise if trie is up-to-date
+        if (store == null || contentHash == null || !upToDateSerialisedTrieExists(contentHash))
         {
-            // Only deserialise if trie is up-to-date
-            if (upToDateSerialisedTrieExists(doc))
-            {
-                // Deserialise
-                List<Node> dser = (List<Node>) inSer.readObject();
+            return null;
+        }
 
-                System.out.println("Recovered serialised trie for '" + doc.getName() + "'");
+        try
+        {
+            ByteBuffer buffer = store.getTrie(contentHash);
 
-                return dser;
+            // Trie may have been removed since it was checked
+            if (buffer != null)
+            {
+                return CompactTrie.readFrom(buffer);
             }
         }
-        catch (IOException | ClassNotFoundException e)
+        catch (IOException e)
         {
             e.printStackTrace();
         }
@@ -78,77 +100,126 @@ public class DocumentMatcher
         return null;
     }
 
-    /* Checks if a serialised trie for a document exists and is up-to-date */
+    /*
+     * Checks if a serialised trie for the content of a document exists and is up-to-date
+     * Tries are stored by content, so copies of a file share one trie, and moving or touching a file does not rebuild it
+     */
     public static boolean upToDateSerialisedTrieExists(Document doc)
     {
-        // Full filenames for serialised trie file and serialised attributes file
-        String serialName = doc.getSerialFilename(SERIALISATION_PATH) + "_DM";
-        String attrsName = doc.getSerialAttributesFilename(SERIALISATION_PATH) + "_DM";
+        String contentHash = contentHashOf(doc);
 
-        File serialFile = new File(serialName);
-        File attrsFile = new File(attrsName);
+        return contentHash != null && upToDateSerialisedTrieExists(contentHash);
+    }
 
-        // First condition: serialised trie and attributes files exist
-        if (serialFile.exists() && attrsFile.exists())
+    /* Checks if a serialised trie for some content exists and is up-to-date */
+    private static boolean upToDateSerialisedTrieExists(String contentHash)
+    {
+        TrieStore store = openStore();
+
+        // Serialised trie exists, has at least DocumentMatcher.WORDS_PER_TERM words per term and the current format
+        return store != null && store.containsTrie(contentHash, WORDS_PER_TERM, CompactTrie.FORMAT_VERSION);
+    }
+
+    /*
+     * Returns the hash of the contents of a document file, or null if the file cannot be read
+     * The hash is kept in the trie store and only computed again if the size or date of the file change
+     */
+    private static String contentHashOf(Document doc)
+    {
+        TrieStore store = openStore();
+
+        // Missing files have no contents to hash
+        if (store == null || !doc.getFile().exists())
         {
-            try (FileInputStream fAttrs = new FileInputStream(attrsName);
-                 DataInputStream inAttrs = new DataInputStream(fAttrs))
-            {
-                // Second condition: date of file when serialised is the same as the current date of the file
-                // Third condition: words per term for serialised trie is at least DocumentMatcher.SEARCH_WORDS_MAX
-                return (doc.getDateModified() == inAttrs.readLong()) && (SEARCH_WORDS_MAX <= inAttrs.readInt());
-            }
-            catch (IOException e)
-            {
-                e.printStackTrace();
-            }
+            return null;
+        }
+
+        String pathHash = doc.getHashedName();
+        long dateModified = doc.getDateModified();
+        long size = doc.getFile().length();
+
+        // Hash is still valid if the file has the same date and size as when it was hashed
+        String contentHash = store.getContentHash(pathHash, size, dateModified);
+
+        if (contentHash != null)
+        {
+            return contentHash;
+        }
+
+        contentHash = doc.getContentHash();
+
+        if (contentHash == null)
+        {
+            return null;
         }
 
-        return false;
+        try
+        {
+            store.putContentHash(pathHash, size, dateModified, contentHash);
+        }
+        catch (IOException e)
+        {
+            // Hash is still valid, only computed again next time
+            e.printStackTrace();
+        }
+
+        return contentHash;
+    }
+
+    /* Returns the store holding all serialised tries, or null if it cannot be opened */
+    private static TrieStore openStore()
+    {
+        try
+        {
+            return TrieStore.open(SERIALISATION_PATH);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            return null;
+        }
     }
 
     /* Serialises the trie of a Document, if it does not already exist and is up-to-date */
     public static void serialiseTrieOf(Document doc)
     {
-        if (upToDateSerialisedTrieExists(doc))
+        String contentHash = contentHashOf(doc);
+
+        // Nothing to serialise if the file cannot be read
+        // A trie for the same content may already exist for a copy of the file
+        if (contentHash == null || upToDateSerialisedTrieExists(contentHash))
         {
             return;
         }
 
-        File serialPath = new File(SERIALISATION_PATH);
+        writeTrie(doc, contentHash, buildTrie(doc));
+    }
+
+    /* Serialises a trie already built for a Document, replacing any serialised trie of the same content */
+    static void serialiseTrieOf(Document doc, CompactTrie trie)
+    {
+        String contentHash = contentHashOf(doc);
 
-        // Make serialisation directory if it does not already exist
-        if (!serialPath.exists())
+        if (contentHash != null)
         {
-            if (serialPath.mkdirs())
-            {
-                System.out.println("Created directory for serialisation at '" + SERIALISATION_PATH + "'");
-            }
-            else
-            {
-                System.out.println("Failed to create directory for serialisation at '" + SERIALISATION_PATH + "'");
-                return; // Stop method execution if directory does not exist
-            }
+            writeTrie(doc, contentHash, trie);
         }
+    }
 
-        String serialName = doc.getSerialFilename(SERIALISATION_PATH) + "_DM";
-        String attrsName = doc.getSerialAttributesFilename(SERIALISATION_PATH) + "_DM";
+    /* Appends the trie of some content to the trie store */
+    private static void writeTrie(Document doc, String contentHash, CompactTrie trie)
+    {
+        TrieStore store = openStore();
 
-        try (OutputStream fSer = new FileOutputStream(serialName, false);
-             FSTObjectOutput outSer = new FSTObjectOutput(fSer);
-             OutputStream fAttrs = new FileOutputStream(attrsName, false);
-             DataOutputStream outAttrs = new DataOutputStream(fAttrs))
+        if (store == null)
         {
-            // Create trie to be serialised
-            DocumentMatcher toSerialise = new DocumentMatcher();
-            toSerialise.buildTrie(doc);
-
-            // Serialise trie
-            outSer.writeObject(toSerialise.nodes);
+            return;
+        }
 
-            // Serialise attributes file with information allowing easy checking of whether the trie is up-to-date
-            outAttrs.writeLong(doc.getDateModified());
-            outAttrs.writeInt(SEARCH_WORDS_MAX);
+        try
+        {
+            // Matchers that still have the old trie mapped keep searching it, as the store only appends
+            store.putTrie(contentHash, trie, WORDS_PER_TERM, CompactTrie.FORMAT_VERSION);
 
             System.out.println("Serialised '" + doc.getName() + "'");
         }
@@ -158,299 +229,568 @@ public class DocumentMatcher
         }
     }
 
-    /* Deletes serialised trie for a Document, if it exists*/
+    /*
+     * Forgets the content hash of a Document, if it has one
+     * Its trie may be shared with copies of the file, so it is only deleted by deleteUnusedTries
+     */
     public static void deleteSerialisedTrie(Document doc)
     {
-        String serialName = doc.getSerialFilename(SERIALISATION_PATH) + "_DM";
-        String attrsName = doc.getSerialAttributesFilename(SERIALISATION_PATH) + "_DM";
+        TrieStore store = openStore();
 
-        File serialFile = new File(serialName);
-        File attrsFile = new File(attrsName);
+        try
+        {
+            if (store != null && store.removeContentHash(doc.getHashedName()))
+            {
+                // Success
+                System.out.println("Deleted trie attributes for '" + doc.getName() + "'");
+            }
+            else
+            {
+                System.out.println("Failed to delete trie attributes for '" + doc.getName() + "'");
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
 
-        // Try to delete trie file
-        if (serialFile.delete())
+    /*
+     * Deletes serialised tries that belong to none of the given documents, reclaiming their space before returning
+     * Also deletes the files of tries serialised one or two per document in older versions
+     */
+    public static void deleteUnusedTries(Collection<Document> docs)
+    {
+        TrieStore store = openStore();
+
+        if (store == null)
         {
-            // Success
-            System.out.println("Deleted serialised trie for '" + doc.getName() + "'");
+            return;
         }
-        else
+
+        Set<String> pathHashes = new HashSet<>();
+
+        for (Document doc : docs)
         {
-            System.out.println("Failed to delete serialised trie for '" + doc.getName() + "'");
+            pathHashes.add(doc.getHashedName());
         }
 
-        // Try to delete attributes file
-        if (attrsFile.delete())
+        try
         {
-            // Success
-            System.out.println("Deleted trie date file for '" + doc.getName() + "'");
+            int removed = store.retainOnly(pathHashes);
+
+            if (removed > 0)
+            {
+                System.out.println("Deleted " + removed + " unused serialised tries");
+            }
         }
-        else
+        catch (IOException e)
         {
-            System.out.println("Failed to delete trie date file for '" + doc.getName() + "'");
+            e.printStackTrace();
+        }
+
+        File[] oldSerialFiles = new File(SERIALISATION_PATH).listFiles((dir, name) -> name.endsWith("_DM"));
+
+        if (oldSerialFiles != null)
+        {
+            for (File oldSerialFile : oldSerialFiles)
+            {
+                oldSerialFile.delete();
+            }
         }
     }
 
     /* Builds the trie using a Document */
-    private void buildTrie(Document doc)
+    static CompactTrie buildTrie(Document doc)
+    {
+        // Terms are kept sorted, as required to build a CompactTrie
+        SortedMap<String, PostingList> termPositions = new TreeMap<>();
+
+        // Extract the text once, recording the position of every word as it is read
+        try (TermTokenizer tokenizer = newTokenizer(termPositions))
+        {
+            doc.writeText(tokenizer);
+        }
+        catch (TextCache.CorruptedEntryException e)
+        {
+            // Terms of the text read before the cached text failed are dropped, and the text is extracted from the file
+            e.printStackTrace();
+            return buildTrie(doc);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+
+        return buildTrie(termPositions);
+    }
+
+    /* Builds the trie from terms already listed, sorted, with their positions */
+    static CompactTrie buildTrie(SortedMap<String, PostingList> termPositions)
     {
-        this.nodes = new ArrayList<>();
+        CompactTrie trie = CompactTrie.fromSortedTerms(new ArrayList<>(termPositions.keySet()),
+                new ArrayList<>(termPositions.values()));
+
+        return DeletionIndex.isBuilt() ? trie.withDeletionIndex(DeletionIndex.MAX_DISTANCE) : trie;
+    }
 
-        Node root = new Node('\0'); // Root does not have a value
-        this.nodes.add(root);
+    /* Returns the terms of some text, normalised as they are inserted to the trie, sorted, with their positions */
+    static SortedMap<String, PostingList> listTerms(CharSequence text)
+    {
+        SortedMap<String, PostingList> termPositions = new TreeMap<>();
 
-        // First two nested loops for every possible wordsPerTerm and offset combination
-        for (int wordsPerTerm = 1; wordsPerTerm <= SEARCH_WORDS_MAX; ++wordsPerTerm)
+        try (TermTokenizer tokenizer = newTokenizer(termPositions))
         {
-            for (int offset = 0; offset < wordsPerTerm; ++offset)
-            {
-                // For this combination of wordsPerTerm and offset, insert all terms in a document to the trie
-                for (String term : doc.listTerms(wordsPerTerm, offset))
-                {
-                    this.insert(term);
-                }
-            }
+            tokenizer.append(text);
         }
+
+        return termPositions;
     }
 
-    /* Returns the node at an index of the Node list */
-    private Node getNode(int index)
+    /*
+     * Returns a tokenizer adding the words of the text written to it to a map, normalised, with their positions
+     * Words left empty once normalised, e.g. a dash on its own, are not searchable so they take no position
+     */
+    private static TermTokenizer newTokenizer(Map<String, PostingList> termPositions)
     {
-        return this.nodes.get(index);
+        int[] wordCount = {0};
+
+        return new TermTokenizer(WORDS_PER_TERM, term ->
+        {
+            String word = normaliseTerm(term);
+
+            if (!word.isEmpty())
+            {
+                termPositions.computeIfAbsent(word, w -> new PostingList()).add(wordCount[0]++);
+            }
+        });
     }
 
-    /* Returns the Levenshtein (edit) distance of the closest fuzzy match to the "pattern" string */
-    private int findMinDistance(String pattern)
+    /* Normalises a term before it is inserted to the trie */
+    private static String normaliseTerm(String term)
     {
-        // Compute the Levenshtein distances for a "subtree" starting from the root, i.e. the full trie.
-        ArrayList<Pair<String, Integer>> patternDistances = this.computeSubtree(this.getNode(0), pattern, new int[0]);
+        return Document.removePunctuation(term.toLowerCase());
+    }
 
-        int min = Integer.MAX_VALUE;
+    /* Splits a search string into its words, normalised as the terms of the trie, leaving out words that become empty */
+    static String[] listWords(String pattern)
+    {
+        List<String> words = new ArrayList<>();
 
-        // Iterate over all pairs of terms and distances to find min distance
-        for (Pair<String, Integer> p : patternDistances)
+        for (String word : pattern.trim().split("\\s+"))
         {
-            if (p.getValue() < min)
+            word = normaliseTerm(word);
+
+            if (!word.isEmpty())
             {
-                min = p.getValue();
+                words.add(word);
             }
         }
 
-        return min;
+        return words.toArray(new String[0]);
     }
 
-    /* Returns true if term is in the trie, false otherwise */
+    /*
+     * Returns true if term is in the trie, false otherwise
+     * Like any term the last word is a prefix of, a phrase is in the trie if its words are at consecutive positions,
+     * the last word only being a prefix
+     */
     public boolean contains(String term)
     {
         // Terms in trie do not have punctuation
         // To lowercase for case insensitivity
-        term = Document.removePunctuation(term.toLowerCase());
+        String[] words = listWords(term);
 
         // Immediately return true if pattern is empty
-        if (term.isBlank() || term.isEmpty())
+        if (words.length == 0)
         {
             return true;
         }
 
-        Node cur = this.getNode(0);
-
         // Try to follow path of characters of string term
-        for (char c : term.toCharArray())
+        if (words.length == 1)
         {
-            // If the path cannot be continued, term is not in the trie
-            if (!cur.hasChild(c))
-            {
-                return false;
-            }
-
-            cur = this.getNode(cur.getChild(c));
+            return this.trie.containsPath(words[0]);
         }
 
-        // Successfully followed path
-        return true;
+        return this.bestPhraseMatch(this.findWordsExactly(words, false), 0) != null;
+    }
+
+    /* Returns an estimate of the memory taken by the loaded trie, in bytes */
+    long estimateSize()
+    {
+        return this.trie.estimateSize();
+    }
+
+    /* Passes every term in the trie to a consumer */
+    void forEachTerm(Consumer<String> onTerm)
+    {
+        this.trie.forEachTerm(onTerm);
     }
 
     /*
      * Returns true if the minimum Levenshtein distance of the pattern for this trie
      * is less than or equal to maxDistance
+     * The distance of a phrase is the total distance of its words from the terms at consecutive positions
      */
     public boolean matches(String pattern, int maxDistance)
     {
-        // Immediately return true if pattern is empty
-        if (pattern.isBlank())
+        return this.matchesAll(new String[]{pattern}, maxDistance)[0];
+    }
+
+    /*
+     * Returns, for every pattern, whether the minimum Levenshtein distance of the pattern for this trie
+     * is less than or equal to maxDistance
+     * All fuzzy patterns are matched in a single traversal of the trie, along with the words of all phrases
+     */
+    public boolean[] matchesAll(String[] patterns, int maxDistance)
+    {
+        boolean[] matched = new boolean[patterns.length];
+
+        // Words that need a fuzzy search, and the patterns they are the jth word of
+        List<String> fuzzyWords = new ArrayList<>();
+        List<Integer> fuzzyIndices = new ArrayList<>();
+        List<Integer> fuzzyWordIndices = new ArrayList<>();
+
+        // Positions matching every word of every phrase, for phrases that need a fuzzy search
+        WordMatches[][] phraseMatches = new WordMatches[patterns.length][];
+
+        for (int i = 0; i < patterns.length; ++i)
         {
-            return true;
+            String[] words = listWords(patterns[i]);
+
+            // Same shortcuts as DocumentMatcher.contains
+            if (words.length == 0)
+            {
+                matched[i] = true;
+            }
+            else if (maxDistance == 0)
+            {
+                matched[i] = this.contains(patterns[i]);
+            }
+            else
+            {
+                if (words.length > 1)
+                {
+                    phraseMatches[i] = new WordMatches[words.length];
+                }
+
+                for (int j = 0; j < words.length; ++j)
+                {
+                    fuzzyWords.add(words[j]);
+                    fuzzyIndices.add(i);
+                    fuzzyWordIndices.add(j);
+
+                    if (words.length > 1)
+                    {
+                        phraseMatches[i][j] = new WordMatches();
+                    }
+                }
+            }
         }
 
-        // No need to run fuzzy search if maxDistance = 0
-        if (maxDistance == 0)
+        if (!fuzzyWords.isEmpty())
         {
-            return this.contains(pattern);
-        }
+            this.trie.forEachTermNodeWithin(fuzzyWords.toArray(new String[0]), maxDistance, (wordIndex, termNode, distance) ->
+            {
+                int i = fuzzyIndices.get(wordIndex);
 
-        pattern = Document.replacePunctuation(pattern, " ");
+                if (phraseMatches[i] == null)
+                {
+                    // A single word is matched as soon as any term is within maxDistance
+                    matched[i] = true;
+                }
+                else
+                {
+                    phraseMatches[i][fuzzyWordIndices.get(wordIndex)].add(this.trie, termNode, distance, null);
+                }
+            });
 
-        return this.findMinDistance(pattern) <= maxDistance;
+            for (int i = 0; i < patterns.length; ++i)
+            {
+                if (phraseMatches[i] != null)
+                {
+                    matched[i] = this.bestPhraseMatch(phraseMatches[i], maxDistance) != null;
+                }
+            }
+        }
+
+        return matched;
     }
 
-    /* Computes the Levenshtein distances for a "subtree" starting from curNode  */
-    private ArrayList<Pair<String, Integer>> computeSubtree(Node curNode, String pattern, int[] prevRow)
+    /*
+     * Returns the term closest to the pattern with its Levenshtein distance, or null if none is within maxDistance
+     * At maxDistance = 0 any term the pattern is a prefix of is a match, as with DocumentMatcher.matches
+     * For a phrase, the closest terms at consecutive positions are returned, separated by spaces
+     */
+    public Pair<String, Integer> bestMatch(String pattern, int maxDistance)
     {
-        int[] curRow = new int[pattern.length() + 1];
+        String[] words = listWords(pattern);
+
+        // Blank pattern is matched exactly by anything
+        if (words.length == 0)
+        {
+            return new Pair<>("", 0);
+        }
 
-        // When we are at the root node we have 0 characters for the name string
-        // Therefore we need i insertions for the ith position of the row
-        if (curNode == this.getNode(0))
+        if (words.length > 1)
         {
-            for (int i = 0; i < curRow.length; ++i)
+            return this.bestPhraseMatch((maxDistance == 0) ? this.findWordsExactly(words, true)
+                    : this.findWordsWithin(words, maxDistance), maxDistance);
+        }
+
+        List<Pair<String, Integer>> best = new ArrayList<>(1);
+
+        if (maxDistance == 0)
+        {
+            // Stop at the first term the pattern is a prefix of
+            this.trie.forEachTermWithPrefix(words[0], (termNode, term, distance) ->
             {
-                curRow[i] = i;
-            }
+                best.add(new Pair<>(term.toString(), 0));
+                return -1;
+            });
         }
         else
         {
-            curRow[0] = prevRow[0] + 1;
+            this.trie.forEachTermWithin(words[0], maxDistance, (termNode, term, distance) ->
+            {
+                best.clear();
+                best.add(new Pair<>(term.toString(), distance));
 
-            // To lowercase to make matching non-case-sensitive
-            char currentPos = Character.toLowerCase(curNode.getVal());
+                // Only look for strictly closer terms from now on, stopping if this one is exact
+                return distance - 1;
+            });
+        }
 
-            for (int i = 1; i <= pattern.length(); ++i)
+        return best.isEmpty() ? null : best.get(0);
+    }
+
+    /*
+     * Finds the positions of the terms matching every word of a phrase exactly, apart from the last word
+     * which matches every term it is a prefix of
+     * Terms are only kept with their positions if keepTerms is true
+     */
+    private WordMatches[] findWordsExactly(String[] words, boolean keepTerms)
+    {
+        WordMatches[] wordMatches = new WordMatches[words.length];
+
+        for (int j = 0; j < words.length; ++j)
+        {
+            wordMatches[j] = new WordMatches();
+
+            if (j == words.length - 1)
             {
-                char patternPos = Character.toLowerCase(pattern.charAt(i - 1));
+                WordMatches lastWordMatches = wordMatches[j];
 
-                // Substitution cost is 1 if the two characters are different,
-                // 0 otherwise
-                int subCost = (currentPos != patternPos) ? 1 : 0;
+                this.trie.forEachTermWithPrefix(words[j], (termNode, term, distance) ->
+                {
+                    lastWordMatches.add(this.trie, termNode, 0, keepTerms ? term.toString() : null);
+                    return 0;
+                });
+            }
+            else
+            {
+                int termNode = this.trie.followPath(words[j]);
 
-                curRow[i] = Math.min(Math.min(prevRow[i] + 1, // Deletion
-                                curRow[i - 1] + 1 // Insertion
-                        ), prevRow[i - 1] + subCost // Substitution
-                );
+                if (termNode != -1 && this.trie.isTerm(termNode))
+                {
+                    wordMatches[j].add(this.trie, termNode, 0, keepTerms ? words[j] : null);
+                }
             }
         }
 
-        ArrayList<Pair<String, Integer>> results = new ArrayList<>();
+        return wordMatches;
+    }
+
+    /* Finds the positions of the terms within maxDistance of every word of a phrase, keeping the terms */
+    private WordMatches[] findWordsWithin(String[] words, int maxDistance)
+    {
+        WordMatches[] wordMatches = new WordMatches[words.length];
 
-        // Only add to results if the current node contains a term
-        if (curNode.isTerm())
+        for (int j = 0; j < words.length; ++j)
         {
-            Pair<String, Integer> result = new Pair<>(curNode.getTerm(), curRow[curRow.length - 1]);
+            WordMatches matchesOfWord = new WordMatches();
 
-            results.add(result);
-        }
+            // Keep the budget at maxDistance, so every term within it is found
+            this.trie.forEachTermWithin(words[j], maxDistance, (termNode, term, distance) ->
+            {
+                matchesOfWord.add(this.trie, termNode, distance, term.toString());
+                return maxDistance;
+            });
 
-        // Recursively join lists to construct a list of all the results in this branch
-        for (int nextIndex : curNode.getChildren())
-        {
-            Node nextNode = this.getNode(nextIndex);
-            results.addAll(this.computeSubtree(nextNode, pattern, curRow));
+            wordMatches[j] = matchesOfWord;
         }
 
-        return results;
+        return wordMatches;
     }
 
-    /* Inserts a term to the trie */
-    private void insert(String term)
+    /*
+     * Returns the closest occurrence of a phrase, given the terms matching each of its words, with its total distance,
+     * or null if no occurrence is within maxDistance
+     * The word with the fewest positions gives the positions the phrase can start at, which the other words are
+     * intersected with; the earliest of the closest occurrences is returned
+     */
+    private Pair<String, Integer> bestPhraseMatch(WordMatches[] wordMatches, int maxDistance)
     {
-        term = Document.removePunctuation(term.toLowerCase());
+        int rarest = 0;
+
+        for (int j = 0; j < wordMatches.length; ++j)
+        {
+            wordMatches[j].sortByPosition();
+
+            if (wordMatches[j].size() < wordMatches[rarest].size())
+            {
+                rarest = j;
+            }
+        }
 
-        // Start from the root node
-        Node cur = this.getNode(0);
+        int bestStart = -1;
+        int bestDistance = maxDistance + 1;
 
-        for (char c : term.toCharArray())
+        for (int k = 0; k < wordMatches[rarest].size() && bestDistance > 0; ++k)
         {
-            // If a child node with value c already exists,
-            // we should not add it again
-            if (!cur.hasChild(c))
+            int start = wordMatches[rarest].position(k) - rarest;
+            int distance = 0;
+
+            for (int j = 0; j < wordMatches.length && distance < bestDistance; ++j)
             {
-                Node toAdd = new Node(c);
+                int index = wordMatches[j].indexOf(start + j);
 
-                this.nodes.add(toAdd);
-                cur.addChild(toAdd, this.nodes.size() - 1);
+                // Phrase is not at this start
+                distance = (index < 0) ? bestDistance : distance + wordMatches[j].distance(index);
             }
 
-            // Move on deeper following the word path
-            cur = this.getNode(cur.getChild(c));
+            if (distance < bestDistance)
+            {
+                bestStart = start;
+                bestDistance = distance;
+            }
         }
 
-        cur.setTerm(term);
+        if (bestStart < 0)
+        {
+            return null;
+        }
+
+        StringBuilder phrase = new StringBuilder();
+
+        for (int j = 0; j < wordMatches.length; ++j)
+        {
+            String term = wordMatches[j].term(wordMatches[j].indexOf(bestStart + j));
+
+            phrase.append((j > 0) ? " " : "").append((term != null) ? term : "");
+        }
+
+        return new Pair<>(phrase.toString(), bestDistance);
     }
 
     /*
      * RESPONSIBILITIES
-     *   - Represents trie nodes.
+     *   - Collects the positions of the terms matching a word of a phrase, with the distance of the term at each
+     *   - A position only ever has one term, so it is added at most once
      */
-    private static class Node implements java.io.Serializable
+    private static class WordMatches
     {
-        @Serial
-        private static final long serialVersionUID = 4250386998186331854L;
+        private final PostingList positions;
+        // Distance and term of each matching term node, and the index of the term node of each position
+        private int[] distances;
+        private final List<String> terms;
+        private int[] termIndices;
 
-        private final Map<Character, Integer> children;
-        private final char val;
-        private String term;
+        // Positions, sorted once all terms have been added
+        private int[] sortedPositions;
 
-        public Node(char val)
+        WordMatches()
         {
-            this.val = val;
-            this.term = null;
-            this.children = new HashMap<>();
+            this.positions = new PostingList();
+            this.distances = new int[2];
+            this.terms = new ArrayList<>();
+            this.termIndices = new int[0];
         }
 
-        /* Accessor for value field */
-        public char getVal()
+        /* Adds the positions of a term node, with its distance from the word and, optionally, the term itself */
+        void add(CompactTrie trie, int termNode, int distance, String term)
         {
-            return this.val;
-        }
+            int termIndex = this.terms.size();
 
-        /* Checks if this Node is a term (leaf) node */
-        public boolean isTerm()
-        {
-            return this.term != null;
+            if (termIndex == this.distances.length)
+            {
+                this.distances = Arrays.copyOf(this.distances, 2 * termIndex);
+            }
+
+            this.distances[termIndex] = distance;
+            this.terms.add(term);
+
+            int from = trie.positionsFrom(termNode);
+            int to = trie.positionsTo(termNode);
+
+            if (this.positions.size() + to - from > this.termIndices.length)
+            {
+                this.termIndices = Arrays.copyOf(this.termIndices, Math.max(2 * this.termIndices.length,
+                        this.positions.size() + to - from));
+            }
+
+            for (int i = from; i < to; ++i)
+            {
+                this.termIndices[this.positions.size()] = termIndex;
+                this.positions.add(trie.position(i));
+            }
         }
 
-        /* Returns the term of a node */
-        public String getTerm()
+        /* Sorts the positions of all terms added, so they can be binary searched */
+        void sortByPosition()
         {
-            return this.term;
+            int size = this.positions.size();
+            int[] unsorted = new int[size];
+            this.positions.copyTo(unsorted, 0);
+
+            // Sort positions with the index of their term in the lower bits
+            long[] packed = new long[size];
+
+            for (int i = 0; i < size; ++i)
+            {
+                packed[i] = ((long) unsorted[i] << Integer.SIZE) | this.termIndices[i];
+            }
+
+            Arrays.sort(packed);
+
+            this.sortedPositions = new int[size];
+
+            for (int i = 0; i < size; ++i)
+            {
+                this.sortedPositions[i] = (int) (packed[i] >>> Integer.SIZE);
+                this.termIndices[i] = (int) packed[i];
+            }
         }
 
-        /* Sets the term for a node */
-        public void setTerm(String term)
+        /* Returns the number of positions */
+        int size()
         {
-            this.term = term;
+            return this.positions.size();
         }
 
-        /* Connects this Node to a child node */
-        public void addChild(Node child, int childIndex)
+        /* Returns the position at some index */
+        int position(int index)
         {
-            // Only add the child node only if there is no other child
-            // with the same key
-            if (!this.children.containsKey(child.getVal()))
-            {
-                this.children.put(child.getVal(), childIndex);
-            }
+            return this.sortedPositions[index];
         }
 
-        /* Checks if this Node leads to another Node of some value */
-        public boolean hasChild(char val)
+        /* Returns the index of a position, or a negative number if no matching term is at it */
+        int indexOf(int position)
         {
-            return this.children.containsKey(val);
+            return Arrays.binarySearch(this.sortedPositions, position);
         }
 
-        /* Returns the child Node of some value, if it exists */
-        public int getChild(char val)
+        /* Returns the distance of the term at the position of some index */
+        int distance(int index)
         {
-            if (this.hasChild(val))
-            {
-                return this.children.get(val);
-            }
-
-            return -1;
+            return this.distances[this.termIndices[index]];
         }
 
-        /* Returns all the children Nodes */
-        public Collection<Integer> getChildren()
+        /* Returns the term at the position of some index, or null if it was not kept */
+        String term(int index)
         {
-            return this.children.values();
+            return this.terms.get(this.termIndices[index]);
         }
     }
 }
@@ -0,0 +1,235 @@
+package document;
+
+/*
+ * IMPORTS
+ * packages java.io, java.nio: For I/O operations and watching directories
+ * package java.util: Used for collections
+ * java.util.concurrent: Used for collections shared with the watcher thread
+ * java.util.function.Consumer: Used to pass changed documents to the caller
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/*
+ * RESPONSIBILITIES
+ * - Watches the directories of managed documents for files that are modified, created, moved or deleted
+ * - Passes the documents of changed files to a callback on its own thread, off the search path
+ * - Waits for a file to stop changing before passing its document, as editors often save in several writes
+ */
+
+class DocumentWatcher implements AutoCloseable
+{
+    // Time a file must go without changes before its document is passed on, in milliseconds
+    public static final long QUIET_MILLIS = 500;
+
+    private final WatchService watchService;
+    private final Consumer<Document> onChanged;
+
+    // Documents watched, by the absolute path of their file
+    private final Map<Path, Document> docsByPath;
+    // Watch keys of watched directories, with the number of documents watched in each
+    private final Map<Path, WatchKey> keysByDir;
+    private final Map<Path, Integer> docCountsByDir;
+
+    // Changed files waiting to be quiet, with the time of their last change
+    // Only used by the watcher thread
+    private final Map<Path, Long> pending;
+
+    private final Thread thread;
+
+    DocumentWatcher(Consumer<Document> onChanged) throws IOException
+    {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.onChanged = onChanged;
+
+        this.docsByPath = new ConcurrentHashMap<>();
+        this.keysByDir = new HashMap<>();
+        this.docCountsByDir = new HashMap<>();
+        this.pending = new LinkedHashMap<>();
+
+        // Daemon thread, so a watcher that is never closed does not keep the application running
+        this.thread = new Thread(this::run, "document-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    /* Starts watching on a thread of its own */
+    void start()
+    {
+        this.thread.start();
+    }
+
+    /* Watches the file of a document, as well as any file that replaces it */
+    synchronized void watch(Document doc)
+    {
+        Path path = pathOf(doc.getFile());
+        Path dir = path.getParent();
+
+        if (dir == null || this.docsByPath.put(path, doc) != null)
+        {
+            return;
+        }
+
+        if (!this.keysByDir.containsKey(dir))
+        {
+            try
+            {
+                // Moves are seen as a deletion and a creation
+                this.keysByDir.put(dir, dir.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE));
+            }
+            catch (IOException e)
+            {
+                // Document is still searched, but only checked for changes when searching
+                e.printStackTrace();
+                return;
+            }
+        }
+
+        this.docCountsByDir.merge(dir, 1, Integer::sum);
+    }
+
+    /* Stops watching the file of a document, and its directory if no other document is in it */
+    synchronized void unwatch(Document doc)
+    {
+        Path path = pathOf(doc.getFile());
+        Path dir = path.getParent();
+
+        if (dir == null || this.docsByPath.remove(path) == null || !this.keysByDir.containsKey(dir))
+        {
+            return;
+        }
+
+        if (this.docCountsByDir.merge(dir, -1, Integer::sum) == 0)
+        {
+            this.docCountsByDir.remove(dir);
+            this.keysByDir.remove(dir).cancel();
+        }
+    }
+
+    /* Stops the watcher thread */
+    @Override
+    public void close()
+    {
+        this.thread.interrupt();
+
+        try
+        {
+            this.watchService.close();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /* Queues changed files, passing on their documents once they are quiet, until the watcher is closed */
+    private void run()
+    {
+        try
+        {
+            while (!Thread.currentThread().isInterrupted())
+            {
+                // Wake up in time for the next pending file to be quiet
+                WatchKey key = this.pending.isEmpty()
+                        ? this.watchService.take()
+                        : this.watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (key != null)
+                {
+                    this.queueEvents(key);
+                }
+
+                this.passQuietFiles();
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e)
+        {
+            // Watcher closed
+        }
+    }
+
+    /* Queues the files changed in the events of a watch key */
+    private void queueEvents(WatchKey key)
+    {
+        Path dir = (Path) key.watchable();
+
+        for (WatchEvent<?> event : key.pollEvents())
+        {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+            {
+                // Events were lost, so every document in the directory may have changed
+                for (Path path : this.docsByPath.keySet())
+                {
+                    if (dir.equals(path.getParent()))
+                    {
+                        this.queue(path);
+                    }
+                }
+
+                continue;
+            }
+
+            this.queue(dir.resolve((Path) event.context()));
+        }
+
+        key.reset();
+    }
+
+    /* Queues a changed file, if it belongs to a watched document */
+    private void queue(Path path)
+    {
+        if (this.docsByPath.containsKey(path))
+        {
+            // Moved to the end, as its quiet time starts again
+            this.pending.remove(path);
+            this.pending.put(path, System.currentTimeMillis());
+        }
+    }
+
+    /* Passes on the documents of files that have been quiet long enough, in the order they were last changed */
+    private void passQuietFiles()
+    {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Long>> it = this.pending.entrySet().iterator();
+
+        while (it.hasNext())
+        {
+            Map.Entry<Path, Long> entry = it.next();
+
+            if (now - entry.getValue() < QUIET_MILLIS)
+            {
+                break;
+            }
+
+            it.remove();
+
+            Document doc = this.docsByPath.get(entry.getKey());
+
+            // Document may have been removed while the file was waiting
+            if (doc != null)
+            {
+                try
+                {
+                    this.onChanged.accept(doc);
+                }
+                catch (RuntimeException e)
+                {
+                    // One failure should not stop the watcher
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /* Returns the absolute path of a file, as given in watch events */
+    private static Path pathOf(File file)
+    {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,540 @@
+package document;
+
+/*
+ * IMPORTS
+ * packages java.io, java.nio: For I/O operations
+ * package java.util: Used for collections
+ * package java.util.concurrent: Used for the queues between stages and thread-safe counters
+ * java.util.function.Consumer: Used to pass walked documents to the pipeline
+ * java.util.stream.Stream: Used to walk directories
+ */
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/*
+ * RESPONSIBILITIES
+ * - Adds many documents to a DocumentManager and indexes them in stages running at the same time:
+ *   walk, then extract, then tokenize, then build, then persist
+ * - Also checks the tries of documents already managed, rebuilding those that are out-of-date
+ * - Every stage has its own number of threads, and bounded queues between stages hold back faster stages
+ * - Reports progress and throughput to a listener, e.g. for a progress bar
+ */
+
+public class IndexingPipeline
+{
+    // Documents waiting between two stages
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    private final DocumentManager dm;
+
+    // Threads of every stage; walking is done on the thread calling index
+    private int extractThreads;
+    private int tokenizeThreads;
+    private int buildThreads;
+    private int persistThreads;
+    private int queueCapacity;
+
+    private ProgressListener progressListener;
+    private Consumer<Document> documentListener;
+
+    // Counters of the current run
+    private int discovered;
+    private int indexed;
+    private int skipped;
+    private int failed;
+    private boolean walkFinished;
+    private long extractedChars;
+    private long startTime;
+
+    /* Receives the progress of the pipeline, on the pipeline threads, after every document */
+    public interface ProgressListener
+    {
+        void progressed(Progress progress);
+    }
+
+    /* Work done on one stage of the pipeline */
+    private interface Stage
+    {
+        void process(Job job);
+    }
+
+    public IndexingPipeline(DocumentManager dm)
+    {
+        this.dm = dm;
+
+        // Extraction is the slowest stage, so it has the most threads by default
+        this.extractThreads = CORES;
+        this.tokenizeThreads = Math.max(1, CORES / 2);
+        this.buildThreads = Math.max(1, CORES / 2);
+        this.persistThreads = 1;
+        this.queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+        this.progressListener = progress -> {};
+        this.documentListener = doc -> {};
+    }
+
+    /* Adds all files in a directory and its sub-directories as documents, and indexes them */
+    public void index(Path dir) throws IOException
+    {
+        try (Stream<Path> files = Files.walk(dir))
+        {
+            this.run(admit -> files.filter(Files::isRegularFile).forEach(f -> admit.accept(new Document(f.toFile()))), true);
+        }
+    }
+
+    /* Adds documents and indexes them */
+    public void index(Collection<Document> docs)
+    {
+        this.run(docs::forEach, true);
+    }
+
+    /* Indexes documents already added, skipping those whose tries are up-to-date */
+    public void validate(Collection<Document> docs)
+    {
+        this.run(docs::forEach, false);
+    }
+
+    /* Runs every stage until all documents walked by source are indexed, adding them to the manager first if needed */
+    private void run(Consumer<Consumer<Document>> source, boolean adding)
+    {
+        synchronized (this)
+        {
+            this.discovered = 0;
+            this.indexed = 0;
+            this.skipped = 0;
+            this.failed = 0;
+            this.walkFinished = false;
+            this.extractedChars = 0;
+            this.startTime = System.nanoTime();
+        }
+
+        BlockingQueue<Job> toExtract = new ArrayBlockingQueue<>(this.queueCapacity);
+        BlockingQueue<Job> toTokenize = new ArrayBlockingQueue<>(this.queueCapacity);
+        BlockingQueue<Job> toBuild = new ArrayBlockingQueue<>(this.queueCapacity);
+        BlockingQueue<Job> toPersist = new ArrayBlockingQueue<>(this.queueCapacity);
+
+        List<Thread> threads = new ArrayList<>();
+
+        threads.addAll(this.startStage("extract", this.extractThreads, toExtract, toTokenize, this.tokenizeThreads, this::extract));
+        threads.addAll(this.startStage("tokenize", this.tokenizeThreads, toTokenize, toBuild, this.buildThreads, this::tokenize));
+        threads.addAll(this.startStage("build", this.buildThreads, toBuild, toPersist, this.persistThreads, this::build));
+        threads.addAll(this.startStage("persist", this.persistThreads, toPersist, null, 0, this::persist));
+
+        try
+        {
+            // Documents are added in the order they are walked, on this thread only
+            source.accept(doc -> this.admit(doc, adding, toExtract));
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                this.walkFinished = true;
+            }
+
+            this.report();
+
+            // Tell every extracting thread there are no more documents
+            for (int i = 0; i < this.extractThreads; ++i)
+            {
+                putUninterruptibly(toExtract, Job.END);
+            }
+        }
+
+        for (Thread thread : threads)
+        {
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                // Stop waiting, but let the caller see the interruption
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /* Walking stage: adds a document to the manager, if needed, and queues it to be indexed */
+    private void admit(Document doc, boolean adding, BlockingQueue<Job> toExtract)
+    {
+        synchronized (this)
+        {
+            ++this.discovered;
+        }
+
+        // Documents that cannot be added, e.g. duplicates, are not indexed
+        if (adding && !this.dm.addDocument(doc))
+        {
+            this.finish(null, false);
+            return;
+        }
+
+        putUninterruptibly(toExtract, new Job(doc));
+    }
+
+    /* Extracting stage: reads the text of a document, unless it already has an up-to-date trie */
+    private void extract(Job job)
+    {
+        // Also hashes the file, which is why it is not done when walking
+        if (DocumentMatcher.upToDateSerialisedTrieExists(job.doc))
+        {
+            job.upToDate = true;
+            return;
+        }
+
+        StringWriter text = new StringWriter();
+
+        try
+        {
+            job.doc.writeText(text);
+        }
+        catch (TextCache.CorruptedEntryException e)
+        {
+            // Text read before the cached text failed is dropped, and the text is extracted from the file
+            e.printStackTrace();
+            this.extract(job);
+            return;
+        }
+        catch (IOException e)
+        {
+            // Text that could be extracted is still indexed, so the document is not extracted again on every search
+            e.printStackTrace();
+        }
+
+        job.text = text.toString();
+
+        synchronized (this)
+        {
+            this.extractedChars += job.text.length();
+        }
+    }
+
+    /* Tokenizing stage: lists the terms of the text, with their positions */
+    private void tokenize(Job job)
+    {
+        job.terms = DocumentMatcher.listTerms(job.text);
+        job.text = null;
+    }
+
+    /* Building stage: builds the trie of the terms */
+    private void build(Job job)
+    {
+        job.trie = DocumentMatcher.buildTrie(job.terms);
+        job.terms = null;
+    }
+
+    /* Persisting stage: serialises the trie */
+    private void persist(Job job)
+    {
+        DocumentMatcher.serialiseTrieOf(job.doc, job.trie);
+        job.trie = null;
+    }
+
+    /*
+     * Starts the threads of a stage, which pass documents on to the next stage once processed
+     * The last thread of the stage to finish tells every thread of the next stage there are no more documents
+     */
+    private List<Thread> startStage(String name, int threadCount, BlockingQueue<Job> in, BlockingQueue<Job> out,
+                                    int nextThreadCount, Stage stage)
+    {
+        List<Thread> threads = new ArrayList<>(threadCount);
+        AtomicInteger running = new AtomicInteger(threadCount);
+
+        for (int i = 0; i < threadCount; ++i)
+        {
+            Thread thread = new Thread(() ->
+            {
+                try
+                {
+                    while (true)
+                    {
+                        Job job = in.take();
+
+                        if (job == Job.END)
+                        {
+                            break;
+                        }
+
+                        this.process(job, out, stage);
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                finally
+                {
+                    if (running.decrementAndGet() == 0 && out != null)
+                    {
+                        for (int j = 0; j < nextThreadCount; ++j)
+                        {
+                            putUninterruptibly(out, Job.END);
+                        }
+                    }
+                }
+            }, "indexing-" + name + "-" + i);
+
+            thread.setDaemon(true);
+            thread.start();
+
+            threads.add(thread);
+        }
+
+        return threads;
+    }
+
+    /* Processes a document on a stage, and passes it on to the next stage, if any */
+    private void process(Job job, BlockingQueue<Job> out, Stage stage)
+    {
+        // Documents with up-to-date tries go through the remaining stages without any work
+        if (!job.upToDate)
+        {
+            try
+            {
+                stage.process(job);
+            }
+            catch (RuntimeException e)
+            {
+                // A failure for one document should not stop the others
+                e.printStackTrace();
+
+                synchronized (this)
+                {
+                    ++this.failed;
+                }
+
+                this.report();
+                return;
+            }
+        }
+
+        if (out != null)
+        {
+            putUninterruptibly(out, job);
+        }
+        else
+        {
+            this.finish(job.doc, !job.upToDate);
+        }
+    }
+
+    /* Counts a document as done, either indexed or skipped because it was up-to-date or not added, and reports progress */
+    private void finish(Document doc, boolean wasIndexed)
+    {
+        synchronized (this)
+        {
+            if (wasIndexed)
+            {
+                ++this.indexed;
+            }
+            else
+            {
+                ++this.skipped;
+            }
+        }
+
+        // Document now has an up-to-date trie
+        if (doc != null)
+        {
+            this.documentListener.accept(doc);
+        }
+
+        this.report();
+    }
+
+    /* Passes the current progress to the listener */
+    private void report()
+    {
+        Progress progress;
+
+        synchronized (this)
+        {
+            progress = new Progress(this.discovered, this.indexed, this.skipped, this.failed, this.walkFinished,
+                    this.extractedChars, System.nanoTime() - this.startTime);
+        }
+
+        this.progressListener.progressed(progress);
+    }
+
+    /* Puts a document in a queue, waiting for space, even if interrupted, so stages always get the end of the queue */
+    private static void putUninterruptibly(BlockingQueue<Job> queue, Job job)
+    {
+        boolean interrupted = false;
+
+        while (true)
+        {
+            try
+            {
+                queue.put(job);
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* Accessor/mutator methods */
+
+    public void setExtractThreads(int extractThreads)
+    {
+        this.extractThreads = requirePositive(extractThreads);
+    }
+
+    public void setTokenizeThreads(int tokenizeThreads)
+    {
+        this.tokenizeThreads = requirePositive(tokenizeThreads);
+    }
+
+    public void setBuildThreads(int buildThreads)
+    {
+        this.buildThreads = requirePositive(buildThreads);
+    }
+
+    public void setPersistThreads(int persistThreads)
+    {
+        this.persistThreads = requirePositive(persistThreads);
+    }
+
+    public void setQueueCapacity(int queueCapacity)
+    {
+        this.queueCapacity = requirePositive(queueCapacity);
+    }
+
+    public void setProgressListener(ProgressListener progressListener)
+    {
+        this.progressListener = progressListener;
+    }
+
+    /* Sets a listener called, on the pipeline threads, for every document once it has an up-to-date trie */
+    public void setDocumentListener(Consumer<Document> documentListener)
+    {
+        this.documentListener = documentListener;
+    }
+
+    private static int requirePositive(int n)
+    {
+        if (n < 1)
+        {
+            throw new IllegalArgumentException("Value must be at least 1.");
+        }
+
+        return n;
+    }
+
+    /* A document going through the stages, with what the previous stage produced for it */
+    private static class Job
+    {
+        // Marks the end of a queue
+        static final Job END = new Job(null);
+
+        final Document doc;
+        // Set if the document already has an up-to-date trie
+        boolean upToDate;
+
+        String text;
+        SortedMap<String, PostingList> terms;
+        CompactTrie trie;
+
+        Job(Document doc)
+        {
+            this.doc = doc;
+        }
+    }
+
+    /* Progress of a run of the pipeline */
+    public static class Progress
+    {
+        private final int discovered;
+        private final int indexed;
+        private final int skipped;
+        private final int failed;
+        private final boolean walkFinished;
+        private final long extractedChars;
+        private final long elapsedNanos;
+
+        Progress(int discovered, int indexed, int skipped, int failed, boolean walkFinished, long extractedChars,
+                 long elapsedNanos)
+        {
+            this.discovered = discovered;
+            this.indexed = indexed;
+            this.skipped = skipped;
+            this.failed = failed;
+            this.walkFinished = walkFinished;
+            this.extractedChars = extractedChars;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /* Documents walked so far; only final once the walk is finished */
+        public int getDiscovered()
+        {
+            return this.discovered;
+        }
+
+        /* Documents whose tries were built and serialised */
+        public int getIndexed()
+        {
+            return this.indexed;
+        }
+
+        /* Documents not added, e.g. duplicates, or that already had an up-to-date trie */
+        public int getSkipped()
+        {
+            return this.skipped;
+        }
+
+        public int getFailed()
+        {
+            return this.failed;
+        }
+
+        public int getDone()
+        {
+            return this.indexed + this.skipped + this.failed;
+        }
+
+        public boolean isWalkFinished()
+        {
+            return this.walkFinished;
+        }
+
+        /* Fraction of the documents walked so far that are done, between 0 and 1 */
+        public double getFraction()
+        {
+            return (this.discovered == 0) ? 0.0 : (double) this.getDone() / this.discovered;
+        }
+
+        public double getDocsPerSecond()
+        {
+            return (this.elapsedNanos == 0) ? 0.0 : this.getDone() * 1e9 / this.elapsedNanos;
+        }
+
+        /* Characters of text extracted per second */
+        public double getCharsPerSecond()
+        {
+            return (this.elapsedNanos == 0) ? 0.0 : this.extractedChars * 1e9 / this.elapsedNanos;
+        }
+    }
+}
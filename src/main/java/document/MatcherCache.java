@@ -0,0 +1,124 @@
+package document;
+
+/*
+ * IMPORTS
+ * package java.util: Used for collections and other utilities provided by Java
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * RESPONSIBILITIES
+ * - Keeps loaded DocumentMatcher objects in memory so searches do not reload them from disc
+ * - Evicts the least recently used matchers once their total size exceeds a memory budget
+ */
+
+class MatcherCache
+{
+    // Cached matchers in order of access, least recently used first
+    private final LinkedHashMap<Document, Entry> entries;
+    // Maximum total estimated size of cached matchers, in bytes
+    private long budget;
+    // Current total estimated size of cached matchers, in bytes
+    private long used;
+
+    MatcherCache(long budget)
+    {
+        // Access-ordered, so iteration starts from the least recently used matcher
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.budget = budget;
+        this.used = 0;
+    }
+
+    /*
+     * Returns the matcher of a document, loading it only if it is not cached
+     * or if the file of the document has been modified since it was cached
+     */
+    DocumentMatcher get(Document doc)
+    {
+        long dateModified = doc.getDateModified();
+
+        synchronized (this)
+        {
+            Entry entry = this.entries.get(doc);
+
+            if (entry != null && entry.dateModified == dateModified)
+            {
+                return entry.docMatcher;
+            }
+        }
+
+        // Load without holding the lock, so documents can be loaded concurrently
+        DocumentMatcher docMatcher = new DocumentMatcher(doc);
+
+        this.put(doc, new Entry(docMatcher, dateModified));
+
+        return docMatcher;
+    }
+
+    /* Caches a matcher, evicting the least recently used matchers if the budget is exceeded */
+    private synchronized void put(Document doc, Entry entry)
+    {
+        Entry replaced = this.entries.put(doc, entry);
+
+        if (replaced != null)
+        {
+            this.used -= replaced.size;
+        }
+
+        this.used += entry.size;
+
+        this.evictOverBudget();
+    }
+
+    /* Removes the matcher of a document from the cache, if it is cached */
+    synchronized void remove(Document doc)
+    {
+        Entry removed = this.entries.remove(doc);
+
+        if (removed != null)
+        {
+            this.used -= removed.size;
+        }
+    }
+
+    /* Sets the memory budget, evicting matchers if it is now exceeded */
+    synchronized void setBudget(long budget)
+    {
+        this.budget = budget;
+
+        this.evictOverBudget();
+    }
+
+    /* Evicts the least recently used matchers until the total size is within the budget */
+    private void evictOverBudget()
+    {
+        Iterator<Entry> it = this.entries.values().iterator();
+
+        while (this.used > this.budget && it.hasNext())
+        {
+            this.used -= it.next().size;
+            it.remove();
+        }
+    }
+
+    /*
+     * RESPONSIBILITIES
+     *   - Represents a cached matcher, with the modification date of the file it was loaded for
+     */
+    private static class Entry
+    {
+        private final DocumentMatcher docMatcher;
+        private final long dateModified;
+        private final long size;
+
+        Entry(DocumentMatcher docMatcher, long dateModified)
+        {
+            this.docMatcher = docMatcher;
+            this.dateModified = dateModified;
+            this.size = docMatcher.estimateSize();
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package document;
+
+/*
+ * IMPORTS
+ * package legal: For the categories documents are filtered by
+ * package java.util: Used for collections and other utilities provided by Java
+ */
+
+import legal.LCase;
+import legal.LClient;
+import legal.LCourt;
+
+import java.util.*;
+
+/*
+ * RESPONSIBILITIES
+ * - Represents an index of the substrings of the name, case, client and court of every document, for filtering
+ * - Maps every gram (substring of up to MAX_GRAM_LENGTH characters) of a category to a posting list of the IDs
+ *   of the documents whose value contains it
+ * - Finds the documents whose value contains some text by intersecting the posting lists of its grams, so only
+ *   the documents containing every gram of the text are compared with it
+ * - Maps every case, client and court to a posting list of the IDs of its documents, and the dates cases were
+ *   assigned to the documents assigned on them, so the documents of any of these are listed without a scan
+ * Note that matching is not case-sensitive, as when filtering the table of documents.
+ */
+
+class MetadataIndex
+{
+    // Longest grams indexed; longer text is looked up by its grams of this length
+    static final int MAX_GRAM_LENGTH = 3;
+
+    // Categories documents can be filtered by, in the order their values are kept
+    private static final Class<?>[] CATEGORIES = {Document.class, LCase.class, LClient.class, LCourt.class};
+
+    // Documents by ID; documents removed or updated leave a null entry until the index is compacted
+    // IDs are given in the order documents are added or updated, so posting lists keep documents in that order
+    private final List<Document> docsById;
+    // IDs of the documents in the index, and the lowercased values indexed for them, in the order of CATEGORIES
+    private final Map<Document, Integer> ids;
+    private final Map<Document, String[]> valuesIndexed;
+    // Case, client, court and date of assignment (in milliseconds) indexed for every document, null if missing
+    private final Map<Document, Object[]> detailsIndexed;
+
+    // Posting lists of every gram of every category, each holding IDs in increasing order
+    private final List<Map<String, PostingList>> postingsByGram;
+
+    // Posting lists of every case, client and court, and of every date of assignment in order
+    private final Map<LCase, PostingList> postingsByCase;
+    private final Map<LClient, PostingList> postingsByClient;
+    private final Map<LCourt, PostingList> postingsByCourt;
+    private final TreeMap<Long, PostingList> postingsByDate;
+
+    MetadataIndex()
+    {
+        this.docsById = new ArrayList<>();
+        this.ids = new HashMap<>();
+        this.valuesIndexed = new HashMap<>();
+        this.detailsIndexed = new HashMap<>();
+        this.postingsByGram = new ArrayList<>(CATEGORIES.length);
+
+        for (int i = 0; i < CATEGORIES.length; ++i)
+        {
+            this.postingsByGram.add(new HashMap<>());
+        }
+
+        this.postingsByCase = new HashMap<>();
+        this.postingsByClient = new HashMap<>();
+        this.postingsByCourt = new HashMap<>();
+        this.postingsByDate = new TreeMap<>();
+    }
+
+    /* Updates a document in the index if its name or details have changed since it was added, if it is in it */
+    synchronized void update(Document doc)
+    {
+        if (this.ids.containsKey(doc))
+        {
+            this.add(doc);
+        }
+    }
+
+    /*
+     * Adds a document to the index, or updates it if its name or details have changed since it was added
+     * Documents whose values have not changed are left as they are
+     */
+    synchronized void add(Document doc)
+    {
+        String[] values = valuesOf(doc);
+        Object[] details = detailsOf(doc);
+
+        if (Arrays.equals(values, this.valuesIndexed.get(doc)) && Arrays.equals(details, this.detailsIndexed.get(doc)))
+        {
+            return;
+        }
+
+        this.remove(doc);
+
+        int id = this.docsById.size();
+
+        this.docsById.add(doc);
+        this.ids.put(doc, id);
+        this.valuesIndexed.put(doc, values);
+        this.detailsIndexed.put(doc, details);
+
+        // Cases, clients and courts are told apart by identity, as two clients may share a name
+        if (doc.getCase() != null)
+        {
+            this.postingsByCase.computeIfAbsent(doc.getCase(), lCase -> new PostingList()).add(id);
+        }
+
+        if (doc.getClient() != null)
+        {
+            this.postingsByClient.computeIfAbsent(doc.getClient(), lClient -> new PostingList()).add(id);
+        }
+
+        if (doc.getCourt() != null)
+        {
+            this.postingsByCourt.computeIfAbsent(doc.getCourt(), lCourt -> new PostingList()).add(id);
+        }
+
+        if (doc.getDateAssigned() != null)
+        {
+            this.postingsByDate.computeIfAbsent(doc.getDateAssigned().getTime(), date -> new PostingList()).add(id);
+        }
+
+        for (int i = 0; i < CATEGORIES.length; ++i)
+        {
+            if (values[i] == null)
+            {
+                continue;
+            }
+
+            Map<String, PostingList> postings = this.postingsByGram.get(i);
+
+            // IDs only increase, so appending keeps every posting list sorted, and a gram found twice is added once
+            for (int from = 0; from < values[i].length(); ++from)
+            {
+                for (int to = from + 1; to <= Math.min(from + MAX_GRAM_LENGTH, values[i].length()); ++to)
+                {
+                    postings.computeIfAbsent(values[i].substring(from, to), gram -> new PostingList()).add(id);
+                }
+            }
+        }
+    }
+
+    /* Removes a document from the index, if it is in it */
+    synchronized void remove(Document doc)
+    {
+        Integer id = this.ids.remove(doc);
+
+        if (id == null)
+        {
+            return;
+        }
+
+        // Postings of the document are only dropped when the index is compacted
+        this.docsById.set(id, null);
+        this.valuesIndexed.remove(doc);
+        this.detailsIndexed.remove(doc);
+
+        // Compact once most IDs are stale, so that updates do not grow the index without bound
+        if (this.docsById.size() > 2 * this.ids.size() + 16)
+        {
+            this.compact();
+        }
+    }
+
+    /*
+     * Returns the documents whose value of a category contains some text, ignoring case
+     * Category should be one of Document.class (name), LCase.class, LClient.class or LCourt.class
+     */
+    synchronized Set<Document> filter(Class<?> category, String text)
+    {
+        int c = Arrays.asList(CATEGORIES).indexOf(category);
+
+        if (c == -1)
+        {
+            throw new IllegalArgumentException("'" + category.toString() + "': no such LCategory");
+        }
+
+        String lowerText = text.toLowerCase();
+        Set<Document> found = new HashSet<>();
+
+        // Every document contains the empty string, if it has a value for the category
+        if (lowerText.isEmpty())
+        {
+            for (Map.Entry<Document, String[]> entry : this.valuesIndexed.entrySet())
+            {
+                if (entry.getValue()[c] != null)
+                {
+                    found.add(entry.getKey());
+                }
+            }
+
+            return found;
+        }
+
+        // Text no longer than a gram is looked up directly, longer text by all its longest grams
+        List<PostingList> gramPostings = new ArrayList<>();
+        int gramLength = Math.min(lowerText.length(), MAX_GRAM_LENGTH);
+
+        for (int from = 0; from + gramLength <= lowerText.length(); ++from)
+        {
+            PostingList postings = this.postingsByGram.get(c).get(lowerText.substring(from, from + gramLength));
+
+            // No document contains a gram of the text
+            if (postings == null)
+            {
+                return found;
+            }
+
+            gramPostings.add(postings);
+        }
+
+        // Intersect the shortest lists first, so the candidates narrow down as fast as possible
+        gramPostings.sort(Comparator.comparingInt(PostingList::size));
+
+        int[] candidates = new int[gramPostings.get(0).size()];
+        int candidateCount = gramPostings.get(0).copyTo(candidates, 0);
+
+        for (int i = 1; i < gramPostings.size() && candidateCount > 0; ++i)
+        {
+            candidateCount = intersect(candidates, candidateCount, gramPostings.get(i));
+        }
+
+        for (int i = 0; i < candidateCount; ++i)
+        {
+            Document doc = this.docsById.get(candidates[i]);
+
+            // Grams of longer text may be found in a different order, so the text itself is checked
+            if (doc != null && (lowerText.length() <= MAX_GRAM_LENGTH || this.valuesIndexed.get(doc)[c].contains(lowerText)))
+            {
+                found.add(doc);
+            }
+        }
+
+        return found;
+    }
+
+    /* Returns the documents of a case, in the order they were indexed */
+    synchronized List<Document> listDocumentsOf(LCase lCase)
+    {
+        return this.listDocumentsIn(this.postingsByCase.get(lCase));
+    }
+
+    /* Returns the documents of a client, in the order they were indexed */
+    synchronized List<Document> listDocumentsOf(LClient lClient)
+    {
+        return this.listDocumentsIn(this.postingsByClient.get(lClient));
+    }
+
+    /* Returns the documents of a court, in the order they were indexed */
+    synchronized List<Document> listDocumentsOf(LCourt lCourt)
+    {
+        return this.listDocumentsIn(this.postingsByCourt.get(lCourt));
+    }
+
+    /*
+     * Returns the documents assigned from one date to another, both included, earliest first
+     * Either date may be null to leave the range open on that side
+     */
+    synchronized List<Document> listDocumentsAssignedBetween(Date from, Date to)
+    {
+        long fromMillis = (from != null) ? from.getTime() : Long.MIN_VALUE;
+        long toMillis = (to != null) ? to.getTime() : Long.MAX_VALUE;
+
+        List<Document> found = new ArrayList<>();
+
+        if (fromMillis > toMillis)
+        {
+            return found;
+        }
+
+        for (PostingList postings : this.postingsByDate.subMap(fromMillis, true, toMillis, true).values())
+        {
+            found.addAll(this.listDocumentsIn(postings));
+        }
+
+        return found;
+    }
+
+    /* Returns the documents in a posting list, which may be null, leaving out those removed since they were added */
+    private List<Document> listDocumentsIn(PostingList postings)
+    {
+        List<Document> found = new ArrayList<>();
+
+        for (int i = 0; postings != null && i < postings.size(); ++i)
+        {
+            Document doc = this.docsById.get(postings.get(i));
+
+            if (doc != null)
+            {
+                found.add(doc);
+            }
+        }
+
+        return found;
+    }
+
+    /* Keeps the IDs of an array also in a posting list, both in increasing order, returning the number of IDs kept */
+    private static int intersect(int[] ids, int count, PostingList postings)
+    {
+        int kept = 0;
+        int j = 0;
+
+        for (int i = 0; i < count && j < postings.size(); ++i)
+        {
+            while (j < postings.size() && postings.get(j) < ids[i])
+            {
+                ++j;
+            }
+
+            if (j < postings.size() && postings.get(j) == ids[i])
+            {
+                ids[kept++] = ids[i];
+            }
+        }
+
+        return kept;
+    }
+
+    /* Drops the postings of removed documents, giving the documents left new IDs in the same order */
+    private void compact()
+    {
+        List<Document> docs = new ArrayList<>(this.ids.size());
+
+        for (Document doc : this.docsById)
+        {
+            if (doc != null)
+            {
+                docs.add(doc);
+            }
+        }
+
+        this.docsById.clear();
+        this.ids.clear();
+        this.valuesIndexed.clear();
+        this.detailsIndexed.clear();
+
+        for (Map<String, PostingList> postings : this.postingsByGram)
+        {
+            postings.clear();
+        }
+
+        this.postingsByCase.clear();
+        this.postingsByClient.clear();
+        this.postingsByCourt.clear();
+        this.postingsByDate.clear();
+
+        for (Document doc : docs)
+        {
+            this.add(doc);
+        }
+    }
+
+    /* Returns the case, client, court and date of assignment (in milliseconds) of a document, null if missing */
+    private static Object[] detailsOf(Document doc)
+    {
+        Date dateAssigned = doc.getDateAssigned();
+
+        return new Object[]{doc.getCase(), doc.getClient(), doc.getCourt(),
+                (dateAssigned != null) ? dateAssigned.getTime() : null};
+    }
+
+    /* Returns the lowercased name, case, client and court of a document, in the order of CATEGORIES, null if missing */
+    private static String[] valuesOf(Document doc)
+    {
+        String[] values = new String[CATEGORIES.length];
+
+        values[0] = doc.getName();
+        values[1] = (doc.getCase() != null) ? doc.getCase().getName() : null;
+        values[2] = (doc.getClient() != null) ? doc.getClient().getName() : null;
+        values[3] = (doc.getCourt() != null) ? doc.getCourt().getName() : null;
+
+        for (int i = 0; i < values.length; ++i)
+        {
+            if (values[i] != null)
+            {
+                values[i] = values[i].toLowerCase();
+            }
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,161 @@
+package document;
+
+/*
+ * IMPORTS
+ * package org.apache.pdfbox: Used for text extraction from PDF files
+ * package java.io: For I/O operations
+ * package java.util: Used for collections
+ * package java.util.concurrent: Used to extract page ranges concurrently
+ */
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/*
+ * RESPONSIBILITIES
+ * - Extracts the text of PDF files, in page order
+ * - Splits large files into page ranges that are extracted concurrently
+ * - Caps the threads used for page ranges of all files, so one very large file does not take every core
+ */
+
+final class PDFTextExtractor
+{
+    // Files with fewer pages than this are extracted on the calling thread only
+    public static final int PARALLEL_PAGES_MIN = 64;
+    // Pages extracted by each concurrent task
+    public static final int PAGES_PER_RANGE = 32;
+    // Default cap on threads extracting page ranges
+    public static final int DEFAULT_MAX_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    // Threads extracting page ranges for all files; idle threads are stopped
+    private static final ThreadPoolExecutor rangeExecutor = new ThreadPoolExecutor(DEFAULT_MAX_THREADS,
+            DEFAULT_MAX_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable ->
+    {
+        Thread thread = new Thread(runnable, "pdf-text-extractor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static
+    {
+        rangeExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private PDFTextExtractor()
+    {
+    }
+
+    /* Sets the maximum number of threads extracting page ranges, shared by all files */
+    static synchronized void setMaxThreads(int maxThreads)
+    {
+        if (maxThreads < 1)
+        {
+            throw new IllegalArgumentException("At least one thread is needed to extract page ranges.");
+        }
+
+        // Maximum pool size cannot be less than the core pool size, so they are set in the right order
+        if (maxThreads > rangeExecutor.getMaximumPoolSize())
+        {
+            rangeExecutor.setMaximumPoolSize(maxThreads);
+            rangeExecutor.setCorePoolSize(maxThreads);
+        }
+        else
+        {
+            rangeExecutor.setCorePoolSize(maxThreads);
+            rangeExecutor.setMaximumPoolSize(maxThreads);
+        }
+    }
+
+    /* Writes the text of a PDF file to a Writer, in page order */
+    static void writeText(File file, Writer out) throws IOException
+    {
+        // Use Apache PDFBox for simple text extraction
+        try (PDDocument doc = PDDocument.load(file))
+        {
+            int pageCount = doc.getNumberOfPages();
+
+            if (pageCount < PARALLEL_PAGES_MIN)
+            {
+                new PDFTextStripper().writeText(doc, out);
+                return;
+            }
+
+            // Every range after the first is extracted by another thread, from its own copy of the file,
+            // as PDDocument cannot be used by several threads
+            List<Future<String>> ranges = new ArrayList<>();
+
+            for (int rangeStart = PAGES_PER_RANGE + 1; rangeStart <= pageCount; rangeStart += PAGES_PER_RANGE)
+            {
+                int startPage = rangeStart;
+                int endPage = Math.min(pageCount, startPage + PAGES_PER_RANGE - 1);
+
+                ranges.add(rangeExecutor.submit(() -> extractRange(file, startPage, endPage)));
+            }
+
+            try
+            {
+                // Meanwhile, the first range is extracted on this thread from the file already loaded
+                writeRange(doc, 1, PAGES_PER_RANGE, out);
+
+                // Ranges are written in page order, whatever order they finish in
+                for (Future<String> range : ranges)
+                {
+                    out.write(System.lineSeparator());
+                    out.write(range.get());
+                }
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof IOException)
+                {
+                    throw (IOException) e.getCause();
+                }
+
+                throw new IOException(e.getCause());
+            }
+            catch (InterruptedException e)
+            {
+                // Stop waiting, but let the caller see the interruption
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while extracting '" + file.getName() + "'");
+            }
+            finally
+            {
+                // Ranges are no longer needed if extraction failed
+                for (Future<String> range : ranges)
+                {
+                    range.cancel(false);
+                }
+            }
+        }
+    }
+
+    /* Returns the text of a range of pages, loading a copy of the file */
+    private static String extractRange(File file, int startPage, int endPage) throws IOException
+    {
+        try (PDDocument doc = PDDocument.load(file))
+        {
+            StringWriter text = new StringWriter();
+
+            writeRange(doc, startPage, endPage, text);
+
+            return text.toString();
+        }
+    }
+
+    /* Writes the text of a range of pages, numbered from 1 and inclusive */
+    private static void writeRange(PDDocument doc, int startPage, int endPage, Writer out) throws IOException
+    {
+        PDFTextStripper pdfStripper = new PDFTextStripper();
+
+        pdfStripper.setStartPage(startPage);
+        pdfStripper.setEndPage(endPage);
+
+        pdfStripper.writeText(doc, out);
+    }
+}
@@ -0,0 +1,90 @@
+package document;
+
+/*
+ * IMPORTS
+ * java.util.Arrays: Used to grow and sort the list
+ */
+
+import java.util.Arrays;
+
+/*
+ * RESPONSIBILITIES
+ * - Represents a growable list of increasing IDs, without boxing them
+ * - Holds the IDs of the documents containing a term, or the positions of a term in a document
+ */
+
+class PostingList
+{
+    private int[] ids;
+    private int size;
+
+    PostingList()
+    {
+        this.ids = new int[2];
+        this.size = 0;
+    }
+
+    /* Returns the number of IDs in the list */
+    int size()
+    {
+        return this.size;
+    }
+
+    /* Returns the ID at some index of the list */
+    int get(int i)
+    {
+        return this.ids[i];
+    }
+
+    /* Appends an ID to the list, unless it is already the last one */
+    void add(int id)
+    {
+        if (this.size > 0 && this.ids[this.size - 1] == id)
+        {
+            return;
+        }
+
+        if (this.size == this.ids.length)
+        {
+            this.ids = Arrays.copyOf(this.ids, this.size * 2);
+        }
+
+        this.ids[this.size++] = id;
+    }
+
+    /*
+     * Replaces every ID by its new ID, new IDs being indexed by old ID, and removes the IDs whose new ID is -1
+     * The IDs are sorted again if the new IDs are not in the same order
+     */
+    void renumber(int[] newIds)
+    {
+        int kept = 0;
+        boolean sorted = true;
+
+        for (int i = 0; i < this.size; ++i)
+        {
+            int newId = newIds[this.ids[i]];
+
+            if (newId != -1)
+            {
+                sorted &= (kept == 0 || this.ids[kept - 1] < newId);
+                this.ids[kept++] = newId;
+            }
+        }
+
+        this.size = kept;
+
+        if (!sorted)
+        {
+            Arrays.sort(this.ids, 0, this.size);
+        }
+    }
+
+    /* Copies the IDs to an array starting at some index, returning the index after the last ID copied */
+    int copyTo(int[] dest, int from)
+    {
+        System.arraycopy(this.ids, 0, dest, from, this.size);
+
+        return from + this.size;
+    }
+}
@@ -0,0 +1,44 @@
+package document;
+
+/*
+ * RESPONSIBILITIES
+ * - Represents a document found by a ranked search, with the term that matched the query best
+ */
+
+public class SearchResult
+{
+    private final Document document;
+    private final String matchedTerm;
+    private final int distance;
+
+    public SearchResult(Document document, String matchedTerm, int distance)
+    {
+        this.document = document;
+        this.matchedTerm = matchedTerm;
+        this.distance = distance;
+    }
+
+    /* Accessor methods */
+
+    public Document getDocument()
+    {
+        return this.document;
+    }
+
+    public String getMatchedTerm()
+    {
+        return this.matchedTerm;
+    }
+
+    // Levenshtein distance of the matched term from the query
+    public int getDistance()
+    {
+        return this.distance;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.document + " ('" + this.matchedTerm + "', " + this.distance + ")";
+    }
+}
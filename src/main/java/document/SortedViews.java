@@ -0,0 +1,182 @@
+package document;
+
+/*
+ * IMPORTS
+ * package legal: For the categories documents are sorted by
+ * package java.util: Used for collections and other utilities provided by Java
+ */
+
+import legal.LCase;
+import legal.LClient;
+import legal.LCourt;
+
+import java.util.*;
+
+/*
+ * RESPONSIBILITIES
+ * - Keeps the documents sorted by every category they can be sorted by, as they are added, removed and updated
+ * - Computes the sort key of a document for every category once, when it is added or its details change, so sorting
+ *   never goes through the case, client or court of a document
+ * Note that documents are sorted by name (or date, latest first) then by document name, as compared by String.compareTo;
+ * documents equal in both are kept in the order they were added.
+ */
+
+class SortedViews
+{
+    // Categories documents can be sorted by, in the order their views and keys are kept
+    private static final Class<?>[] CATEGORIES = {Document.class, LCase.class, LClient.class, LCourt.class, Date.class};
+
+    // Documents of every category, in order
+    private final List<TreeMap<SortKey, Document>> views;
+    // Keys of every document, in the order of CATEGORIES
+    private final Map<Document, SortKey[]> keysOf;
+    // Order documents were added in, to tell apart documents with equal keys
+    private long nextSequence;
+
+    SortedViews()
+    {
+        this.views = new ArrayList<>(CATEGORIES.length);
+        this.keysOf = new HashMap<>();
+        this.nextSequence = 0;
+
+        for (int i = 0; i < CATEGORIES.length; ++i)
+        {
+            this.views.add(new TreeMap<>());
+        }
+    }
+
+    /* Returns true if documents can be sorted by a category */
+    static boolean isCategory(Class<?> category)
+    {
+        return Arrays.asList(CATEGORIES).contains(category);
+    }
+
+    /*
+     * Adds a document to every view, or moves it if its name or details have changed since it was added
+     * Documents moved keep their place among documents with equal keys
+     */
+    synchronized void add(Document doc)
+    {
+        SortKey[] oldKeys = this.keysOf.get(doc);
+        SortKey[] keys = keysOf(doc, (oldKeys != null) ? oldKeys[0].sequence : this.nextSequence++);
+
+        if (Arrays.equals(keys, oldKeys))
+        {
+            return;
+        }
+
+        this.remove(doc);
+
+        for (int i = 0; i < CATEGORIES.length; ++i)
+        {
+            this.views.get(i).put(keys[i], doc);
+        }
+
+        this.keysOf.put(doc, keys);
+    }
+
+    /* Moves a document if its name or details have changed since it was added, if it is in the views */
+    synchronized void update(Document doc)
+    {
+        if (this.keysOf.containsKey(doc))
+        {
+            this.add(doc);
+        }
+    }
+
+    /* Removes a document from every view, if it is in them */
+    synchronized void remove(Document doc)
+    {
+        SortKey[] keys = this.keysOf.remove(doc);
+
+        if (keys == null)
+        {
+            return;
+        }
+
+        for (int i = 0; i < CATEGORIES.length; ++i)
+        {
+            this.views.get(i).remove(keys[i]);
+        }
+    }
+
+    /* Returns the documents sorted by a category, which must be one of CATEGORIES */
+    synchronized List<Document> list(Class<?> category)
+    {
+        return new ArrayList<>(this.views.get(Arrays.asList(CATEGORIES).indexOf(category)).values());
+    }
+
+    /* Returns the keys of a document for every category, in the order of CATEGORIES */
+    private static SortKey[] keysOf(Document doc, long sequence)
+    {
+        LCase lCase = doc.getCase();
+        String docName = nameOrEmpty(doc.getName());
+
+        // Documents without a case sort as if assigned at the epoch
+        long date = (lCase != null && lCase.getDateAssigned() != null) ? lCase.getDateAssigned().getTime() : 0;
+
+        return new SortKey[]{
+                new SortKey(docName, 0, docName, sequence),
+                new SortKey((lCase != null) ? nameOrEmpty(lCase.getName()) : "", 0, docName, sequence),
+                new SortKey((doc.getClient() != null) ? nameOrEmpty(doc.getClient().getName()) : "", 0, docName, sequence),
+                new SortKey((doc.getCourt() != null) ? nameOrEmpty(doc.getCourt().getName()) : "", 0, docName, sequence),
+                // Latest first
+                new SortKey("", -date, docName, sequence)};
+    }
+
+    private static String nameOrEmpty(String name)
+    {
+        return (name != null) ? name : "";
+    }
+
+    /*
+     * RESPONSIBILITIES
+     *   - Represents the position of a document in a view: the name or negated date it is sorted by, then its own name,
+     *     then the order it was added in
+     */
+    private static final class SortKey implements Comparable<SortKey>
+    {
+        private final String name;
+        private final long negatedDate;
+        private final String docName;
+        private final long sequence;
+
+        SortKey(String name, long negatedDate, String docName, long sequence)
+        {
+            this.name = name;
+            this.negatedDate = negatedDate;
+            this.docName = docName;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(SortKey other)
+        {
+            int c = this.name.compareTo(other.name);
+
+            if (c == 0)
+            {
+                c = Long.compare(this.negatedDate, other.negatedDate);
+            }
+
+            if (c == 0)
+            {
+                c = this.docName.compareTo(other.docName);
+            }
+
+            return (c != 0) ? c : Long.compare(this.sequence, other.sequence);
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            return other instanceof SortKey && this.compareTo((SortKey) other) == 0;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(this.name, this.negatedDate, this.docName, this.sequence);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package document;
+
+/*
+ * IMPORTS
+ * java.io.Writer: Text is written to the tokenizer as it is extracted
+ * java.util.function.Consumer: Used to pass the terms to the caller
+ */
+
+import java.io.Writer;
+import java.util.function.Consumer;
+
+/*
+ * RESPONSIBILITIES
+ * - Splits text written to it into words, as java.util.Scanner does by default
+ * - Emits every term of 1 to maxWordsPerTerm consecutive words in a single pass, while the text is still being written
+ * e.g. with maxWordsPerTerm = 2, "Fair is foul" gives "Fair", "is", "Fair is", "foul" and "is foul".
+ * This is the same set of terms as splitting the text with Scanner into lists of every words per term and offset.
+ * Note that punctuation is not removed at this point.
+ */
+
+class TermTokenizer extends Writer
+{
+    private final int maxWordsPerTerm;
+    private final Consumer<String> onTerm;
+
+    // Last maxWordsPerTerm words, the word number i being at index i % maxWordsPerTerm
+    private final String[] recentWords;
+    private long wordCount;
+
+    // Characters of the word currently being read
+    private final StringBuilder word;
+
+    TermTokenizer(int maxWordsPerTerm, Consumer<String> onTerm)
+    {
+        this.maxWordsPerTerm = maxWordsPerTerm;
+        this.onTerm = onTerm;
+
+        this.recentWords = new String[maxWordsPerTerm];
+        this.wordCount = 0;
+        this.word = new StringBuilder();
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len)
+    {
+        for (int i = off; i < off + len; ++i)
+        {
+            this.read(cbuf[i]);
+        }
+    }
+
+    /* Tokenizes text already in memory, without copying it */
+    @Override
+    public TermTokenizer append(CharSequence csq)
+    {
+        for (int i = 0; i < csq.length(); ++i)
+        {
+            this.read(csq.charAt(i));
+        }
+
+        return this;
+    }
+
+    /* Reads the next character of the text */
+    private void read(char c)
+    {
+        // Words are separated by whitespace, like the default delimiter of java.util.Scanner
+        if (Character.isWhitespace(c))
+        {
+            this.endWord();
+        }
+        else
+        {
+            this.word.append(c);
+        }
+    }
+
+    /* Ends the word currently being read, emitting every term that ends with it */
+    private void endWord()
+    {
+        if (this.word.length() == 0)
+        {
+            return;
+        }
+
+        this.recentWords[(int) (this.wordCount % this.maxWordsPerTerm)] = this.word.toString();
+        ++this.wordCount;
+
+        this.word.setLength(0);
+
+        // Emit the terms of 1 to maxWordsPerTerm words ending with this word, as long as there are enough words
+        for (int wordsPerTerm = 1; wordsPerTerm <= Math.min(this.maxWordsPerTerm, this.wordCount); ++wordsPerTerm)
+        {
+            StringBuilder term = new StringBuilder();
+
+            for (long i = this.wordCount - wordsPerTerm; i < this.wordCount; ++i)
+            {
+                term.append(this.recentWords[(int) (i % this.maxWordsPerTerm)]).append(" ");
+            }
+
+            this.onTerm.accept(term.toString());
+        }
+    }
+
+    @Override
+    public void flush()
+    {
+        // Nothing is buffered apart from the current word, which may continue in the next write
+    }
+
+    /* Ends the last word, as the end of the text also ends it */
+    @Override
+    public void close()
+    {
+        this.endWord();
+    }
+}
@@ -0,0 +1,401 @@
+package document;
+
+/*
+ * IMPORTS
+ * packages java.io, java.nio: For I/O operations
+ * java.util.zip: Used to compress cached text
+ * java.security: Used for hashing
+ * java.math.BigInteger: Used to represent large numbers in hashing
+ * package java.util: Used for collections
+ */
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * RESPONSIBILITIES
+ * - Keeps the text extracted from document files on disc, compressed, so files are not parsed again
+ * - An entry is only used while the path, size and modification date of its file are unchanged
+ * - Evicts the least recently used entries once the cache grows over its budget
+ */
+
+final class TextCache
+{
+    // Path for cached text
+    public static final String CACHE_PATH = System.getProperty("user.home") + "/Downloads/serial/text/";
+    // Default budget for the cache on disc, in bytes
+    public static final long DEFAULT_BUDGET = 512L * 1024 * 1024;
+
+    private static final String EXTENSION = ".txt.gz";
+
+    private static volatile long budget = DEFAULT_BUDGET;
+    // Whether text is read from and written to the cache, or always extracted from the file
+    private static volatile boolean enabled = true;
+    // Total size of the entries on disc, or -1 until it is first needed
+    private static long cachedBytes = -1;
+
+    /* Writes the text of a file to a Writer; called on a cache miss */
+    interface TextSource
+    {
+        void writeText(Writer out) throws IOException;
+    }
+
+    /*
+     * Thrown when an entry turns out to be corrupted after some of its text has been written
+     * The entry is deleted first, so writing the text again, to a fresh Writer, extracts it from the file
+     */
+    static class CorruptedEntryException extends IOException
+    {
+        CorruptedEntryException(Path entry, Throwable cause)
+        {
+            super("Cached text '" + entry + "' is corrupted.", cause);
+        }
+    }
+
+    private TextCache()
+    {
+    }
+
+    /* Sets the budget, in bytes, for the cache on disc */
+    static void setBudget(long budget)
+    {
+        TextCache.budget = budget;
+
+        evictOverBudget(0);
+    }
+
+    /* Sets whether text is cached, e.g. so benchmarks measure extraction rather than reading cached text */
+    static void setEnabled(boolean enabled)
+    {
+        TextCache.enabled = enabled;
+    }
+
+    /*
+     * Writes the text of a file to a Writer, streaming it from the cache if there is an entry for the file
+     * Otherwise, the text is extracted by source and written to the cache at the same time
+     */
+    static void writeText(File file, Writer out, TextSource source) throws IOException
+    {
+        String pathHash = hashOf(file.getAbsolutePath());
+
+        // Extract without the cache if it is disabled or there is nowhere to keep the text
+        if (!enabled || pathHash == null || !makeCachePath())
+        {
+            source.writeText(out);
+            return;
+        }
+
+        // Size and modification date are part of the name, so entries of an older version of the file are never read
+        Path entry = Paths.get(CACHE_PATH, pathHash + "_" + file.length() + "_" + file.lastModified() + EXTENSION);
+
+        if (!readEntry(entry, out))
+        {
+            writeEntry(entry, pathHash, out, source);
+        }
+    }
+
+    /* Deletes all cached text of a file, if any */
+    static void remove(File file)
+    {
+        String pathHash = hashOf(file.getAbsolutePath());
+
+        if (pathHash != null)
+        {
+            deleteEntriesOf(pathHash, null);
+        }
+    }
+
+    /*
+     * Streams a cached entry to a Writer,
+     * returning false if there is no readable entry, in which case nothing is written
+     */
+    private static boolean readEntry(Path entry, Writer out) throws IOException
+    {
+        Reader in;
+
+        try
+        {
+            in = new InputStreamReader(new GZIPInputStream(Files.newInputStream(entry)), StandardCharsets.UTF_8);
+        }
+        catch (NoSuchFileException e)
+        {
+            return false;
+        }
+        catch (IOException e)
+        {
+            // Entry is corrupted, so it is deleted and the text is extracted again
+            deleteEntry(entry);
+            return false;
+        }
+
+        try (in)
+        {
+            in.transferTo(out);
+        }
+        catch (IOException e)
+        {
+            // Entry is corrupted, but some text has already been written, so the caller has to start again
+            deleteEntry(entry);
+
+            // Starting again would only read the same entry if it could not be deleted
+            if (Files.exists(entry))
+            {
+                throw e;
+            }
+
+            throw new CorruptedEntryException(entry, e);
+        }
+
+        // Mark the entry as recently used, for eviction
+        entry.toFile().setLastModified(System.currentTimeMillis());
+
+        return true;
+    }
+
+    /* Extracts text to a Writer and to a new cache entry at the same time */
+    private static void writeEntry(Path entry, String pathHash, Writer out, TextSource source) throws IOException
+    {
+        // Entry is written to a temporary file first and then moved, so a partly-written entry is never read
+        Path tempFile = Files.createTempFile(entry.getParent(), pathHash, ".tmp");
+        boolean cached = false;
+
+        try
+        {
+            CacheWriter cacheOut = new CacheWriter(out, tempFile);
+
+            try (cacheOut)
+            {
+                source.writeText(cacheOut);
+            }
+
+            if (cacheOut.hasFailed())
+            {
+                return;
+            }
+
+            Files.move(tempFile, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            cached = true;
+        }
+        finally
+        {
+            if (!cached)
+            {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+
+        // Entries for older versions of the file are no longer useful
+        deleteEntriesOf(pathHash, entry);
+
+        evictOverBudget(Files.size(entry));
+    }
+
+    /* Deletes the entries of the file with a hashed path, except for one entry to keep */
+    private static void deleteEntriesOf(String pathHash, Path keep)
+    {
+        File[] entries = new File(CACHE_PATH).listFiles((dir, name) -> name.startsWith(pathHash + "_") && name.endsWith(EXTENSION));
+
+        if (entries == null)
+        {
+            return;
+        }
+
+        for (File entry : entries)
+        {
+            if (keep == null || !entry.toPath().equals(keep))
+            {
+                deleteEntry(entry.toPath());
+            }
+        }
+    }
+
+    /* Deletes an entry, keeping track of the size of the cache */
+    private static synchronized void deleteEntry(Path entry)
+    {
+        try
+        {
+            long size = Files.size(entry);
+
+            if (Files.deleteIfExists(entry) && cachedBytes != -1)
+            {
+                cachedBytes -= size;
+            }
+        }
+        catch (IOException e)
+        {
+            // Already deleted by another thread
+        }
+    }
+
+    /* Adds a new entry to the size of the cache and deletes the least recently used entries while it is over budget */
+    private static synchronized void evictOverBudget(long addedBytes)
+    {
+        // The cache is only scanned when it is first used and when it may be over budget;
+        // otherwise, its size is kept up to date as entries are added and deleted
+        if (cachedBytes != -1)
+        {
+            cachedBytes += addedBytes;
+
+            if (cachedBytes <= budget)
+            {
+                return;
+            }
+        }
+
+        File[] entries = new File(CACHE_PATH).listFiles((dir, name) -> name.endsWith(EXTENSION));
+
+        if (entries == null)
+        {
+            return;
+        }
+
+        cachedBytes = Arrays.stream(entries).mapToLong(File::length).sum();
+
+        if (cachedBytes <= budget)
+        {
+            return;
+        }
+
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+
+        for (File entry : entries)
+        {
+            if (cachedBytes <= budget)
+            {
+                break;
+            }
+
+            long size = entry.length();
+
+            if (entry.delete())
+            {
+                cachedBytes -= size;
+            }
+        }
+    }
+
+    /* Creates the directory for cached text if it does not already exist */
+    private static boolean makeCachePath()
+    {
+        File cachePath = new File(CACHE_PATH);
+
+        if (!cachePath.exists())
+        {
+            if (cachePath.mkdirs())
+            {
+                System.out.println("Created directory for cached text at '" + CACHE_PATH + "'");
+            }
+            else if (!cachePath.exists())
+            {
+                System.out.println("Failed to create directory for cached text at '" + CACHE_PATH + "'");
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /* Returns a string hashed with SHA-256, as done for serialised tries */
+    private static String hashOf(String S)
+    {
+        try
+        {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+
+            return new BigInteger(1, md.digest(S.getBytes(StandardCharsets.UTF_8))).toString(16);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /*
+     * Writes text to a Writer and, compressed, to a cache file
+     * Failing to write the cache file does not stop the text from being written to the Writer
+     */
+    private static class CacheWriter extends Writer
+    {
+        private final Writer out;
+        private Writer cacheOut;
+
+        CacheWriter(Writer out, Path cacheFile) throws IOException
+        {
+            this.out = out;
+            this.cacheOut = new OutputStreamWriter(new GZIPOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(cacheFile))), StandardCharsets.UTF_8);
+        }
+
+        /* Returns true if the cache file could not be written completely */
+        boolean hasFailed()
+        {
+            return this.cacheOut == null;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException
+        {
+            this.out.write(cbuf, off, len);
+
+            if (this.cacheOut != null)
+            {
+                try
+                {
+                    this.cacheOut.write(cbuf, off, len);
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                    this.abandonCache();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            this.out.flush();
+        }
+
+        /* Closes the cache file only; the Writer text is written to belongs to the caller */
+        @Override
+        public void close()
+        {
+            if (this.cacheOut != null)
+            {
+                try
+                {
+                    this.cacheOut.close();
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                    this.cacheOut = null;
+                }
+            }
+        }
+
+        private void abandonCache()
+        {
+            try
+            {
+                this.cacheOut.close();
+            }
+            catch (IOException e)
+            {
+                // The cache file is deleted anyway
+            }
+
+            this.cacheOut = null;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package document;
+
+/*
+ * IMPORTS
+ * package java.util: Used for collections provided by Java
+ */
+
+import java.util.*;
+
+/*
+ * RESPONSIBILITIES
+ * - Keeps the best k results of a ranked search, and nothing else
+ * - Orders results by distance, breaking ties with a rank given by the caller (e.g. the ID of the document)
+ */
+
+class TopResults
+{
+    // Orders entries closest first, so the worst kept entry is the last one
+    private static final Comparator<Entry> ORDER = Comparator.<Entry>comparingInt(e -> e.distance).thenComparingInt(e -> e.rank);
+
+    private final int k;
+    private final TreeSet<Entry> top;
+    // Kept entries by rank, so a document found again with a better term replaces its entry
+    private final Map<Integer, Entry> byRank;
+
+    TopResults(int k)
+    {
+        this.k = k;
+        this.top = new TreeSet<>(ORDER);
+        this.byRank = new HashMap<>();
+    }
+
+    /*
+     * Offers a result, keeping it if it is among the best k so far
+     * The term is only copied if the result is kept
+     */
+    void offer(int rank, Document doc, CharSequence term, int distance)
+    {
+        // Nothing is kept when no results are asked for
+        if (this.k <= 0)
+        {
+            return;
+        }
+
+        Entry existing = this.byRank.get(rank);
+
+        if (existing != null)
+        {
+            // Only keep the best term of every document
+            if (existing.distance <= distance)
+            {
+                return;
+            }
+
+            this.top.remove(existing);
+        }
+        else if (this.isFull())
+        {
+            Entry worst = this.top.last();
+
+            // Not better than the worst kept result
+            if (distance > worst.distance || (distance == worst.distance && rank > worst.rank))
+            {
+                return;
+            }
+
+            this.top.remove(worst);
+            this.byRank.remove(worst.rank);
+        }
+
+        Entry entry = new Entry(rank, doc, term.toString(), distance);
+
+        this.top.add(entry);
+        this.byRank.put(rank, entry);
+    }
+
+    /* Checks if k results are kept */
+    boolean isFull()
+    {
+        return this.top.size() >= this.k;
+    }
+
+    /* Checks if k results are kept and all of them are exact matches, so no other result can be better */
+    boolean isFullOfExactMatches()
+    {
+        return this.isFull() && (this.k <= 0 || this.top.last().distance == 0);
+    }
+
+    /* Returns the largest distance a new result can have to still be kept, given the largest distance searched for */
+    int maxUsefulDistance(int maxDistance)
+    {
+        if (this.k <= 0)
+        {
+            return -1;
+        }
+
+        return this.isFull() ? Math.min(maxDistance, this.top.last().distance) : maxDistance;
+    }
+
+    /* Returns the results kept, closest first */
+    List<SearchResult> toList()
+    {
+        List<SearchResult> results = new ArrayList<>(this.top.size());
+
+        for (Entry entry : this.top)
+        {
+            results.add(new SearchResult(entry.doc, entry.term, entry.distance));
+        }
+
+        return results;
+    }
+
+    /*
+     * RESPONSIBILITIES
+     *   - Represents a kept result with its rank
+     */
+    private static class Entry
+    {
+        private final int rank;
+        private final Document doc;
+        private final String term;
+        private final int distance;
+
+        Entry(int rank, Document doc, String term, int distance)
+        {
+            this.rank = rank;
+            this.doc = doc;
+            this.term = term;
+            this.distance = distance;
+        }
+    }
+}
@@ -0,0 +1,856 @@
+package document;
+
+/*
+ * IMPORTS
+ * packages java.io, java.nio: For I/O operations
+ * package java.util: Used for collections
+ * java.util.concurrent: Used to compact segments in the background
+ * java.util.zip.CRC32: Used to detect partly-written records of the offset table
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/*
+ * RESPONSIBILITIES
+ * - Stores the serialised tries of all documents in a few large append-only segment files
+ * - Keeps an offset table, locating every trie in the segments, and the content hashes of document files
+ *   The table is an append-only log of changes, read once when the store is opened, so lookups need no file access
+ * - Compacts segments in the background once they are mostly tries that were removed or rebuilt, reclaiming their space
+ */
+
+class TrieStore
+{
+    // Segments are no longer appended to once they reach this size, in bytes
+    public static final long SEGMENT_MAX_BYTES = 64L * 1024 * 1024;
+    // Segments with a smaller fraction of live bytes than this are compacted
+    public static final double COMPACTION_LIVE_RATIO = 0.5;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_EXTENSION = ".seg";
+    private static final String TABLE_NAME = "offsets.log";
+
+    // Tries start at multiples of this in segments, so their arrays are aligned when mapped
+    private static final int ALIGNMENT = Long.BYTES;
+
+    // Kinds of records in the offset table
+    private static final byte PUT_TRIE = 1;
+    private static final byte REMOVE_TRIE = 2;
+    private static final byte PUT_FILE = 3;
+    private static final byte REMOVE_FILE = 4;
+
+    private static final Map<String, TrieStore> openStores = new HashMap<>();
+
+    private final Path dir;
+
+    // Location of the trie of every content hash
+    private final Map<String, TrieLocation> tries;
+    // Content hash of every document file, by hashed path, with the size and date it was hashed at
+    private final Map<String, FileEntry> files;
+
+    // Live bytes in every segment, and bytes of tries since removed or replaced, to find segments worth compacting
+    private final Map<Integer, Long> liveBytesBySegment;
+    private final Map<Integer, Long> deadBytesBySegment;
+    // Segments mapped so far, with the number of bytes mapped
+    private final Map<Integer, MappedByteBuffer> mappedSegments;
+
+    private int activeSegment;
+    private FileChannel activeChannel;
+    private DataOutputStream table;
+
+    private final ExecutorService compactor;
+    private boolean compactionQueued;
+    // Whether segments are being compacted, in which case no other compaction starts until it finishes
+    private boolean compacting;
+    // Segment the live tries of a running compaction are copied to, never made the active segment; -1 if none
+    private int reservedSegment;
+
+    /* Returns the store in a directory, opening it once for the whole application */
+    static synchronized TrieStore open(String dir) throws IOException
+    {
+        TrieStore store = openStores.get(dir);
+
+        if (store == null)
+        {
+            store = new TrieStore(Paths.get(dir));
+            openStores.put(dir, store);
+        }
+
+        return store;
+    }
+
+    private TrieStore(Path dir) throws IOException
+    {
+        this.dir = dir;
+
+        this.tries = new HashMap<>();
+        this.files = new HashMap<>();
+        this.liveBytesBySegment = new HashMap<>();
+        this.deadBytesBySegment = new HashMap<>();
+        this.mappedSegments = new HashMap<>();
+        this.reservedSegment = -1;
+
+        Files.createDirectories(dir);
+
+        this.replayTable();
+        this.deleteUnreferencedSegments();
+
+        // Append to the newest segment, unless it is full
+        this.activeSegment = this.liveBytesBySegment.keySet().stream().max(Integer::compare).orElse(0);
+        this.openActiveSegment();
+
+        this.table = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(this.tablePath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+
+        // Daemon thread, so compaction never keeps the application running
+        this.compactor = Executors.newSingleThreadExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "trie-store-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Tries may have been replaced while the store was last open
+        this.queueCompactionIfSparse();
+    }
+
+    /* Returns true if there is a trie for a content hash, serialised with at least some words per term and a format */
+    synchronized boolean containsTrie(String contentHash, int minWordsPerTerm, int formatVersion)
+    {
+        TrieLocation location = this.tries.get(contentHash);
+
+        return location != null && location.wordsPerTerm >= minWordsPerTerm && location.formatVersion == formatVersion;
+    }
+
+    /*
+     * Returns the serialised trie of a content hash, memory-mapped from its segment, or null if there is none
+     * The buffer stays valid after the trie is removed or its segment compacted
+     */
+    synchronized ByteBuffer getTrie(String contentHash) throws IOException
+    {
+        TrieLocation location = this.tries.get(contentHash);
+
+        if (location == null)
+        {
+            return null;
+        }
+
+        MappedByteBuffer segment = this.mappedSegments.get(location.segment);
+
+        // Segments grow, so they are mapped again once a trie is past the end of the mapping
+        if (segment == null || segment.capacity() < location.offset + location.length)
+        {
+            try (FileChannel channel = FileChannel.open(this.segmentPath(location.segment), StandardOpenOption.READ))
+            {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+
+            this.mappedSegments.put(location.segment, segment);
+        }
+
+        return segment.slice((int) location.offset, location.length);
+    }
+
+    /* Appends a serialised trie for a content hash, replacing any trie it already had */
+    synchronized void putTrie(String contentHash, CompactTrie trie, int wordsPerTerm, int formatVersion) throws IOException
+    {
+        if (this.activeChannel.size() >= SEGMENT_MAX_BYTES)
+        {
+            this.rollActiveSegment();
+        }
+
+        // Pad so the trie starts aligned
+        long offset = this.activeChannel.size();
+        long padding = (ALIGNMENT - offset % ALIGNMENT) % ALIGNMENT;
+
+        this.activeChannel.position(offset);
+        this.activeChannel.write(ByteBuffer.allocate((int) padding));
+
+        offset += padding;
+        trie.writeTo(this.activeChannel);
+
+        int length = (int) (this.activeChannel.position() - offset);
+
+        // Trie is written before the record locating it, so a record never points to a partly-written trie
+        this.activeChannel.force(false);
+
+        TrieLocation location = new TrieLocation(this.activeSegment, offset, length, wordsPerTerm, formatVersion);
+
+        this.writeRecord(PUT_TRIE, out ->
+        {
+            out.writeUTF(contentHash);
+            out.writeInt(location.segment);
+            out.writeLong(location.offset);
+            out.writeInt(location.length);
+            out.writeInt(location.wordsPerTerm);
+            out.writeInt(location.formatVersion);
+        });
+
+        this.applyPutTrie(contentHash, location);
+
+        // Replacing a trie leaves the old one as dead bytes in its segment
+        this.queueCompactionIfSparse();
+    }
+
+    /* Returns the content hash recorded for a file if it still has the same size and date, or null otherwise */
+    synchronized String getContentHash(String pathHash, long size, long dateModified)
+    {
+        FileEntry entry = this.files.get(pathHash);
+
+        if (entry == null || entry.size != size || entry.dateModified != dateModified)
+        {
+            return null;
+        }
+
+        return entry.contentHash;
+    }
+
+    /* Returns the content hash last recorded for a file, without checking it is up-to-date, or null if there is none */
+    synchronized String getRecordedContentHash(String pathHash)
+    {
+        FileEntry entry = this.files.get(pathHash);
+
+        return (entry != null) ? entry.contentHash : null;
+    }
+
+    /* Records the content hash of a file, with the size and date it was hashed at */
+    synchronized void putContentHash(String pathHash, long size, long dateModified, String contentHash) throws IOException
+    {
+        this.writeRecord(PUT_FILE, out ->
+        {
+            out.writeUTF(pathHash);
+            out.writeLong(size);
+            out.writeLong(dateModified);
+            out.writeUTF(contentHash);
+        });
+
+        this.files.put(pathHash, new FileEntry(size, dateModified, contentHash));
+    }
+
+    /* Forgets the content hash of a file, returning true if it had one */
+    synchronized boolean removeContentHash(String pathHash) throws IOException
+    {
+        if (!this.files.containsKey(pathHash))
+        {
+            return false;
+        }
+
+        this.writeRecord(REMOVE_FILE, out -> out.writeUTF(pathHash));
+        this.files.remove(pathHash);
+
+        return true;
+    }
+
+    /*
+     * Removes the tries and content hashes of all files other than the given ones, returning the number of tries removed
+     * Space is reclaimed by compacting segments on the calling thread, as this is called when the application closes
+     * and a daemon thread could be stopped partway through
+     */
+    synchronized int retainOnly(Set<String> pathHashes) throws IOException
+    {
+        for (String pathHash : new ArrayList<>(this.files.keySet()))
+        {
+            if (!pathHashes.contains(pathHash))
+            {
+                this.removeContentHash(pathHash);
+            }
+        }
+
+        // Tries of content no file has any more
+        Set<String> usedContentHashes = new HashSet<>();
+
+        for (FileEntry entry : this.files.values())
+        {
+            usedContentHashes.add(entry.contentHash);
+        }
+
+        int removed = 0;
+
+        for (String contentHash : new ArrayList<>(this.tries.keySet()))
+        {
+            if (!usedContentHashes.contains(contentHash))
+            {
+                this.writeRecord(REMOVE_TRIE, out -> out.writeUTF(contentHash));
+                this.applyRemoveTrie(contentHash);
+
+                ++removed;
+            }
+        }
+
+        this.compact();
+
+        return removed;
+    }
+
+    /*
+     * Compacts segments in the background if any segment but the active one has too little live data,
+     * unless a compaction is already queued or running
+     */
+    private void queueCompactionIfSparse()
+    {
+        if (this.compactionQueued || this.compacting)
+        {
+            return;
+        }
+
+        for (int segment : this.deadBytesBySegment.keySet())
+        {
+            if (segment != this.activeSegment && this.isSparse(segment))
+            {
+                this.compactionQueued = true;
+                this.compactor.submit(this::compactIfQueued);
+                return;
+            }
+        }
+    }
+
+    /* Compacts segments unless they have been compacted since the compaction was queued, e.g. when closing */
+    private void compactIfQueued()
+    {
+        synchronized (this)
+        {
+            if (!this.compactionQueued)
+            {
+                return;
+            }
+        }
+
+        try
+        {
+            this.compact();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /* Returns true if a segment has a smaller fraction of live bytes than COMPACTION_LIVE_RATIO */
+    private boolean isSparse(int segment)
+    {
+        long live = this.liveBytesBySegment.getOrDefault(segment, 0L);
+        long dead = this.deadBytesBySegment.getOrDefault(segment, 0L);
+
+        return live < (live + dead) * COMPACTION_LIVE_RATIO;
+    }
+
+    /*
+     * Copies the live tries of sparse segments to a new segment, deletes the sparse segments
+     * and rewrites the offset table without the records that no longer apply
+     * Tries are copied without holding the lock of the store, as segments are never written to once they are no longer
+     * the active one, so lookups and appends only wait while the locations of the tries copied are swapped
+     */
+    void compact() throws IOException
+    {
+        Compaction compaction = this.startCompaction();
+
+        if (compaction == null)
+        {
+            return;
+        }
+
+        boolean copied = false;
+
+        try
+        {
+            this.copyLiveTries(compaction);
+            copied = true;
+        }
+        finally
+        {
+            this.finishCompaction(compaction, copied);
+        }
+    }
+
+    /*
+     * Finds the sparse segments and the live tries in them, and reserves the segment to copy them to,
+     * waiting for any compaction already running to finish first
+     * Returns null if no segment is sparse
+     */
+    private synchronized Compaction startCompaction() throws IOException
+    {
+        while (this.compacting)
+        {
+            try
+            {
+                this.wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+
+        this.compactionQueued = false;
+
+        // Segments already deleted, e.g. at startup, only have their counts of bytes left to drop
+        this.deadBytesBySegment.keySet().removeIf(segment -> !Files.exists(this.segmentPath(segment)));
+
+        List<Integer> sparseSegments = new ArrayList<>();
+
+        for (Map.Entry<Integer, Long> entry : this.liveBytesBySegment.entrySet())
+        {
+            if (!Files.exists(this.segmentPath(entry.getKey())))
+            {
+                continue;
+            }
+
+            long segmentSize = Files.size(this.segmentPath(entry.getKey()));
+
+            if (entry.getValue() < segmentSize * COMPACTION_LIVE_RATIO)
+            {
+                sparseSegments.add(entry.getKey());
+            }
+        }
+
+        if (sparseSegments.isEmpty())
+        {
+            return null;
+        }
+
+        // Tries cannot be copied out of a segment still appended to, so a sparse active segment is closed first
+        if (sparseSegments.contains(this.activeSegment))
+        {
+            this.rollActiveSegment();
+        }
+
+        Compaction compaction = new Compaction(sparseSegments, this.newestSegment() + 1);
+
+        for (Map.Entry<String, TrieLocation> entry : this.tries.entrySet())
+        {
+            if (sparseSegments.contains(entry.getValue().segment))
+            {
+                compaction.contentHashes.add(entry.getKey());
+                compaction.oldLocations.add(entry.getValue());
+            }
+        }
+
+        this.reservedSegment = compaction.targetSegment;
+        this.compacting = true;
+
+        return compaction;
+    }
+
+    /* Copies the live tries of a compaction to its reserved segment, without holding the lock of the store */
+    private void copyLiveTries(Compaction compaction) throws IOException
+    {
+        try (FileChannel out = FileChannel.open(this.segmentPath(compaction.targetSegment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+        {
+            long offset = out.size();
+
+            for (int segment : compaction.sparseSegments)
+            {
+                try (FileChannel in = FileChannel.open(this.segmentPath(segment), StandardOpenOption.READ))
+                {
+                    for (TrieLocation location : compaction.oldLocations)
+                    {
+                        if (location.segment != segment)
+                        {
+                            continue;
+                        }
+
+                        // Pad so the trie starts aligned
+                        long padding = (ALIGNMENT - offset % ALIGNMENT) % ALIGNMENT;
+
+                        out.position(offset);
+                        out.write(ByteBuffer.allocate((int) padding));
+
+                        offset += padding;
+
+                        for (long copied = 0; copied < location.length; )
+                        {
+                            copied += in.transferTo(location.offset + copied, location.length - copied, out);
+                        }
+
+                        compaction.newLocations.put(location, new TrieLocation(compaction.targetSegment, offset,
+                                location.length, location.wordsPerTerm, location.formatVersion));
+
+                        offset += location.length;
+                    }
+                }
+            }
+
+            // Tries are written before the table locating them is rewritten, as when appending them
+            out.force(false);
+        }
+    }
+
+    /*
+     * Moves the tries of a compaction to the locations they were copied to, unless they were replaced or removed while
+     * being copied, then rewrites the offset table and deletes the sparse segments
+     * A compaction that failed to copy its tries leaves the store as it was
+     */
+    private synchronized void finishCompaction(Compaction compaction, boolean copied) throws IOException
+    {
+        try
+        {
+            this.reservedSegment = -1;
+
+            // Nothing points into the segment copied to if copying failed
+            if (!copied)
+            {
+                Files.deleteIfExists(this.segmentPath(compaction.targetSegment));
+                return;
+            }
+
+            for (int i = 0; i < compaction.contentHashes.size(); ++i)
+            {
+                String contentHash = compaction.contentHashes.get(i);
+                TrieLocation oldLocation = compaction.oldLocations.get(i);
+                TrieLocation newLocation = compaction.newLocations.get(oldLocation);
+
+                // Locations are replaced whenever a trie is, so the trie is unchanged if its location is the one copied
+                if (this.tries.get(contentHash) == oldLocation)
+                {
+                    this.applyPutTrie(contentHash, newLocation);
+                }
+                else
+                {
+                    this.deadBytesBySegment.merge(newLocation.segment, (long) newLocation.length, Long::sum);
+                }
+            }
+
+            // The table has to be rewritten before the old segments are deleted, or it would point into deleted segments
+            this.rewriteTable();
+
+            // Segment copied to is of no use if every trie copied was replaced or removed meanwhile
+            if (!this.liveBytesBySegment.containsKey(compaction.targetSegment))
+            {
+                compaction.sparseSegments.add(compaction.targetSegment);
+            }
+
+            for (int segment : compaction.sparseSegments)
+            {
+                this.liveBytesBySegment.remove(segment);
+                this.deadBytesBySegment.remove(segment);
+                this.mappedSegments.remove(segment);
+
+                // Tries still mapped keep working; where the file cannot be deleted while mapped, it is deleted on next start
+                if (this.segmentPath(segment).toFile().delete())
+                {
+                    System.out.println("Compacted trie segment " + segment);
+                }
+            }
+        }
+        finally
+        {
+            this.compacting = false;
+            this.notifyAll();
+        }
+    }
+
+    /* Rewrites the offset table with one record per trie and file, replacing the log atomically */
+    private void rewriteTable() throws IOException
+    {
+        this.table.close();
+
+        Path tempFile = Files.createTempFile(this.dir, TABLE_NAME, ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile))))
+        {
+            this.table = out;
+
+            for (Map.Entry<String, TrieLocation> entry : this.tries.entrySet())
+            {
+                TrieLocation location = entry.getValue();
+
+                this.writeRecord(PUT_TRIE, record ->
+                {
+                    record.writeUTF(entry.getKey());
+                    record.writeInt(location.segment);
+                    record.writeLong(location.offset);
+                    record.writeInt(location.length);
+                    record.writeInt(location.wordsPerTerm);
+                    record.writeInt(location.formatVersion);
+                });
+            }
+
+            for (Map.Entry<String, FileEntry> entry : this.files.entrySet())
+            {
+                FileEntry file = entry.getValue();
+
+                this.writeRecord(PUT_FILE, record ->
+                {
+                    record.writeUTF(entry.getKey());
+                    record.writeLong(file.size);
+                    record.writeLong(file.dateModified);
+                    record.writeUTF(file.contentHash);
+                });
+            }
+        }
+
+        Files.move(tempFile, this.tablePath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        this.table = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(this.tablePath(), StandardOpenOption.APPEND)));
+    }
+
+    /* Writes a record to the offset table, framed by its length and checksum */
+    private void writeRecord(byte kind, RecordWriter writer) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream record = new DataOutputStream(bytes))
+        {
+            record.writeByte(kind);
+            writer.write(record);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+
+        this.table.writeInt(bytes.size());
+        this.table.write(bytes.toByteArray());
+        this.table.writeLong(crc.getValue());
+
+        // Written through straight away, so records survive the application being closed abruptly
+        this.table.flush();
+    }
+
+    /* Rebuilds the tries and files from the offset table, stopping at the first partly-written record */
+    private void replayTable() throws IOException
+    {
+        if (!Files.exists(this.tablePath()))
+        {
+            return;
+        }
+
+        long tableBytes = Files.size(this.tablePath());
+        long validBytes = 0;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.tablePath()))))
+        {
+            while (true)
+            {
+                byte[] bytes;
+
+                try
+                {
+                    int length = in.readInt();
+
+                    // A length written partly or not at all may be anything, so it is checked before allocating
+                    if (length < 0 || length > tableBytes - validBytes - Integer.BYTES - Long.BYTES)
+                    {
+                        break;
+                    }
+
+                    bytes = new byte[length];
+                    in.readFully(bytes);
+
+                    CRC32 crc = new CRC32();
+                    crc.update(bytes);
+
+                    if (crc.getValue() != in.readLong())
+                    {
+                        break;
+                    }
+                }
+                catch (EOFException e)
+                {
+                    break;
+                }
+
+                this.applyRecord(new DataInputStream(new ByteArrayInputStream(bytes)));
+
+                validBytes += Integer.BYTES + bytes.length + Long.BYTES;
+            }
+        }
+
+        // Drop a record left partly written, e.g. by a crash, so new records are not appended after it
+        try (FileChannel channel = FileChannel.open(this.tablePath(), StandardOpenOption.WRITE))
+        {
+            if (channel.size() > validBytes)
+            {
+                System.out.println("Dropped partly-written records of the trie offset table");
+                channel.truncate(validBytes);
+            }
+        }
+    }
+
+    /* Applies a record of the offset table */
+    private void applyRecord(DataInputStream record) throws IOException
+    {
+        switch (record.readByte())
+        {
+            case PUT_TRIE:
+                String contentHash = record.readUTF();
+
+                this.applyPutTrie(contentHash, new TrieLocation(record.readInt(), record.readLong(), record.readInt(),
+                        record.readInt(), record.readInt()));
+                break;
+            case REMOVE_TRIE:
+                this.applyRemoveTrie(record.readUTF());
+                break;
+            case PUT_FILE:
+                String pathHash = record.readUTF();
+
+                this.files.put(pathHash, new FileEntry(record.readLong(), record.readLong(), record.readUTF()));
+                break;
+            case REMOVE_FILE:
+                this.files.remove(record.readUTF());
+                break;
+            default:
+                throw new IOException("Unknown record in the trie offset table.");
+        }
+    }
+
+    private void applyPutTrie(String contentHash, TrieLocation location)
+    {
+        this.applyRemoveTrie(contentHash);
+
+        this.tries.put(contentHash, location);
+        this.liveBytesBySegment.merge(location.segment, (long) location.length, Long::sum);
+    }
+
+    private void applyRemoveTrie(String contentHash)
+    {
+        TrieLocation removed = this.tries.remove(contentHash);
+
+        if (removed != null)
+        {
+            this.liveBytesBySegment.merge(removed.segment, (long) -removed.length, Long::sum);
+            this.deadBytesBySegment.merge(removed.segment, (long) removed.length, Long::sum);
+        }
+    }
+
+    /* Deletes segments no trie is located in, e.g. segments compacted while mapped on systems that forbid deleting them */
+    private void deleteUnreferencedSegments()
+    {
+        File[] segments = this.dir.toFile().listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_EXTENSION));
+
+        if (segments == null)
+        {
+            return;
+        }
+
+        int newest = this.liveBytesBySegment.keySet().stream().max(Integer::compare).orElse(-1);
+
+        for (File segment : segments)
+        {
+            String number = segment.getName().substring(SEGMENT_PREFIX.length(),
+                    segment.getName().length() - SEGMENT_EXTENSION.length());
+
+            try
+            {
+                int n = Integer.parseInt(number);
+
+                // Newer segments may hold tries written after the last record, so they are kept to be appended to
+                if (!this.liveBytesBySegment.containsKey(n) && n < newest)
+                {
+                    segment.delete();
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                // Not a segment
+            }
+        }
+    }
+
+    /* Closes the active segment and starts appending to a new one */
+    private void rollActiveSegment() throws IOException
+    {
+        this.activeChannel.close();
+
+        // Segments are never appended to again, as they may be being compacted
+        this.activeSegment = this.newestSegment() + 1;
+        this.openActiveSegment();
+    }
+
+    /* Returns the newest segment in use, which segments written by compactions may be newer than the active one */
+    private int newestSegment()
+    {
+        int newest = Math.max(this.activeSegment, this.reservedSegment);
+
+        for (int segment : this.liveBytesBySegment.keySet())
+        {
+            newest = Math.max(newest, segment);
+        }
+
+        return newest;
+    }
+
+    private void openActiveSegment() throws IOException
+    {
+        this.activeChannel = FileChannel.open(this.segmentPath(this.activeSegment),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private Path segmentPath(int segment)
+    {
+        return this.dir.resolve(SEGMENT_PREFIX + segment + SEGMENT_EXTENSION);
+    }
+
+    private Path tablePath()
+    {
+        return this.dir.resolve(TABLE_NAME);
+    }
+
+    /* Writes the fields of a record */
+    private interface RecordWriter
+    {
+        void write(DataOutputStream record) throws IOException;
+    }
+
+    /* Sparse segments being compacted, with the live tries in them and where they were copied to */
+    private static class Compaction
+    {
+        final List<Integer> sparseSegments;
+        final int targetSegment;
+        final List<String> contentHashes;
+        final List<TrieLocation> oldLocations;
+        final Map<TrieLocation, TrieLocation> newLocations;
+
+        Compaction(List<Integer> sparseSegments, int targetSegment)
+        {
+            this.sparseSegments = sparseSegments;
+            this.targetSegment = targetSegment;
+            this.contentHashes = new ArrayList<>();
+            this.oldLocations = new ArrayList<>();
+            this.newLocations = new IdentityHashMap<>();
+        }
+    }
+
+    /* Where a trie is in the segments, with the words per term and format it was serialised with */
+    private static class TrieLocation
+    {
+        final int segment;
+        final long offset;
+        final int length;
+        final int wordsPerTerm;
+        final int formatVersion;
+
+        TrieLocation(int segment, long offset, int length, int wordsPerTerm, int formatVersion)
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.wordsPerTerm = wordsPerTerm;
+            this.formatVersion = formatVersion;
+        }
+    }
+
+    /* Content hash of a file, with the size and date of the file when it was hashed */
+    private static class FileEntry
+    {
+        final long size;
+        final long dateModified;
+        final String contentHash;
+
+        FileEntry(long size, long dateModified, String contentHash)
+        {
+            this.size = size;
+            this.dateModified = dateModified;
+            this.contentHash = contentHash;
+        }
+    }
+}
@@ -11,6 +11,7 @@ package gui;
  * java.io.IOException: To handle errors in I/O operations
  * package java.time: Used for operations relating to time/date
  * java.util.Date: Represents assignment date
+ * java.util.LinkedHashSet, Set: Used to list the documents affected by changes once each
  * java.util.ResourceBundle: Used by JavaFX controllers for resources dependent on locale
  * java.net.URL: For default FXML binding used by JavaFX initialisers
  */
@@ -36,7 +37,9 @@ import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.ResourceBundle;
+import java.util.Set;
 
 /*
  * RESPONSIBILITIES
@@ -328,6 +331,25 @@ public class DetailsController implements Initializable
         LClient lClient = this.clientChoiceBox.getValue();
         LCourt lCourt = this.courtChoiceBox.getValue();
 
+        // Documents whose details may change, listed before the changes so the documents of the old details are found
+        Set<Document> affectedDocs = new LinkedHashSet<>();
+        affectedDocs.add(this.doc);
+
+        if (lCase != null)
+        {
+            affectedDocs.addAll(this.dm.listDocumentsOf(lCase));
+        }
+
+        if (lClient != null)
+        {
+            affectedDocs.addAll(this.dm.listDocumentsOf(lClient));
+        }
+
+        if (lCourt != null)
+        {
+            affectedDocs.addAll(this.dm.listDocumentsOf(lCourt));
+        }
+
         // Change client details
         if (lClient != null)
         {
@@ -375,7 +397,7 @@ public class DetailsController implements Initializable
         }
 
         // Update details of any documents with the same case, client or court
-        for (Document curDoc : this.dm.listDocuments())
+        for (Document curDoc : affectedDocs)
         {
             if (lClient != null && curDoc.getClient() == this.clientChoiceBox.getValue())
             {
@@ -391,6 +413,9 @@ public class DetailsController implements Initializable
             {
                 curDoc.setCase(lCase);
             }
+
+            // Renamed documents, cases, clients and courts must be found when filtering
+            this.dm.updateDocumentDetails(curDoc);
         }
     }
 
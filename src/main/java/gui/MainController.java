@@ -3,20 +3,26 @@ package gui;
 /*
  * IMPORTS
  * package document: Used for document handling
+ * javafx.animation.PauseTransition: For waiting until the user stops typing before completing the search text
  * package javafx.application: For basic operations on the JavaFX app
  * javafx.beans.binding.BooleanBinding: For binding properties of GUI elements to a binary condition
  * package javafx.collections: For collections necessary to build a JavaFX GUI
  * package javafx.fxml: For making use of FXML to create views
+ * javafx.geometry.Side: For placing suggested completions under the search field
  * package javafx.scene: For basic operations on JavaFX graphics
  * package javafx.stage: For operations on the containers containing JavaFX controls, etc.
+ * javafx.util.Duration: For the delay before completing the search text
  * package legal: For classes representing cases, clients and courts
  * java.net.URL: For default FXML binding used by JavaFX initialisers
  * packages java.io, java.nio: For I/O operations
+ * package java.util.concurrent: Used to complete the search text off the JavaFX thread, cancelling stale requests
+ * java.util.function.Consumer: Used to pass what an indexing pipeline should index
  */
 
 import document.Document;
 import document.DocumentManager;
-import document.DocumentMatcher;
+import document.IndexingPipeline;
+import javafx.animation.PauseTransition;
 import javafx.application.HostServices;
 import javafx.application.Platform;
 import javafx.beans.binding.BooleanBinding;
@@ -26,6 +32,7 @@ import javafx.collections.transformation.FilteredList;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
+import javafx.geometry.Side;
 import javafx.scene.Cursor;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
@@ -38,6 +45,7 @@ import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import legal.LCase;
 import legal.LClient;
 import legal.LCourt;
@@ -48,6 +56,10 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /*
  * RESPONSIBILITIES
@@ -57,11 +69,25 @@ import java.util.*;
 
 public class MainController implements Initializable
 {
+    // Time the search text must go unchanged before it is completed, in milliseconds
+    public static final long COMPLETION_DELAY_MILLIS = 150;
+    // Most completions suggested at once
+    public static final int MAX_COMPLETIONS = 8;
+
     private final DocumentManager dm;
 
     private ObservableList<Document> docsList;
     private FilteredList<Document> docsFiltered;
 
+    // Completions of the search text, computed on a thread of their own so typing is never held up
+    private final ContextMenu completionsMenu;
+    private final PauseTransition completionDelay;
+    private final ExecutorService completionExecutor;
+    // Completion request running, if any, and the number of the latest request, so that stale results are dropped
+    // Only used on the JavaFX thread
+    private Future<?> pendingCompletion;
+    private long completionRequest;
+
     /* FXML bindings */
     @FXML
     private AnchorPane mainAnchorPane;
@@ -123,6 +149,18 @@ public class MainController implements Initializable
 
         this.docsList = FXCollections.observableArrayList(dm.listDocuments());
         this.docsFiltered = new FilteredList<>(this.docsList, x -> true);
+
+        this.completionsMenu = new ContextMenu();
+        this.completionDelay = new PauseTransition(Duration.millis(COMPLETION_DELAY_MILLIS));
+        // Daemon thread, so a pending completion does not keep the application running
+        this.completionExecutor = Executors.newSingleThreadExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "search-completer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pendingCompletion = null;
+        this.completionRequest = 0;
     }
 
     /* Returns stage for main view */
@@ -191,22 +229,19 @@ public class MainController implements Initializable
                     // Modify filter to match documents for which category name contains the filter text
                     // Not case sensitive
                     case "Name":
-                        this.docsFiltered.setPredicate(x -> x.getName().toLowerCase().contains(this.filterTextField.getText().toLowerCase()));
+                        this.filterByCategory(Document.class);
                         break;
 
                     case "Case":
-                        this.docsFiltered.setPredicate(x -> x.getCase() != null
-                                && x.getCase().getName().toLowerCase().contains(this.filterTextField.getText().toLowerCase()));
+                        this.filterByCategory(LCase.class);
                         break;
 
                     case "Client":
-                        this.docsFiltered.setPredicate(x -> x.getClient() != null
-                                && x.getClient().getName().toLowerCase().contains(this.filterTextField.getText().toLowerCase()));
+                        this.filterByCategory(LClient.class);
                         break;
 
                     case "Court":
-                        this.docsFiltered.setPredicate(x -> x.getCourt() != null
-                                && x.getCourt().getName().toLowerCase().contains(this.filterTextField.getText().toLowerCase()));
+                        this.filterByCategory(LCourt.class);
                         break;
 
                     default:
@@ -225,13 +260,40 @@ public class MainController implements Initializable
         });
     }
 
+    /* Filters the TableView to the documents whose name in some category contains the filter text */
+    private void filterByCategory(Class<?> category)
+    {
+        // Looked up in the index of the document manager, rather than comparing the filter text with every document
+        Set<Document> matches = this.dm.filterByCategory(category, this.filterTextField.getText());
+
+        this.docsFiltered.setPredicate(matches::contains);
+    }
+
     /* Initialises searching controls */
     private void initSearch()
     {
-        this.searchTextField.setPromptText(this.searchTextField.getPromptText() + " (" + DocumentMatcher.SEARCH_WORDS_MAX + " words or fewer)");
+        // Complete the search text once the user stops typing for a moment
+        this.completionDelay.setOnFinished(e -> this.requestCompletions());
+
+        this.searchTextField.textProperty().addListener((val, prev, next) ->
+        {
+            // Completions of the previous text are stale, even if they are already being computed
+            this.cancelCompletions();
+            this.completionDelay.playFromStart();
+        });
+
+        this.searchTextField.focusedProperty().addListener((val, prev, next) ->
+        {
+            if (!next)
+            {
+                this.completionsMenu.hide();
+            }
+        });
 
         this.searchButton.setOnAction(e ->
         {
+            this.cancelCompletions();
+
             Parent root = this.mainAnchorPane.getScene().getRoot();
             root.setCursor(Cursor.WAIT);
 
@@ -244,49 +306,15 @@ public class MainController implements Initializable
                     // Trim whitespace at end and start of text
                     String S = this.searchTextField.getText().trim();
 
-                    // Replace punctuation with spaces and convert to char array
-                    char[] charsOfS = Document.replacePunctuation(S, " ").toCharArray();
-
-                    int wordCount = 1;
-
-                    for (int i = 0; i < charsOfS.length - 1; ++i)
-                    {
-                        // Prevent increasing word count multiple times for input such as "word1   word2"
-                        if (Character.isWhitespace(charsOfS[i]) && !Character.isWhitespace(charsOfS[i + 1]))
-                        {
-                            ++wordCount;
-                        }
-                    }
+                    // Phrases of any number of words are matched by the positions of their words
+                    List<Document> matches = this.dm.search(S);
 
-                    // Run search only if the word count does not exceed the maximum allowed
-                    if (wordCount <= DocumentMatcher.SEARCH_WORDS_MAX)
+                    for (Document doc : matches)
                     {
-                        List<Document> matches = this.dm.search(S);
-
-                        for (Document doc : matches)
-                        {
-                            System.out.println(doc);
-                        }
-
-                        this.docsFiltered.setPredicate(matches::contains);
+                        System.out.println(doc);
                     }
-                    else
-                    {
-                        // Display alert dialogue if the word count exceeds the maximum allowed
-                        Platform.runLater(() ->
-                        {
-                            Alert alert = new Alert(AlertType.ERROR);
-
-                            alert.setTitle("Search error");
-                            alert.setHeaderText("Please enter fewer than " + (DocumentMatcher.SEARCH_WORDS_MAX + 1) + " words.");
-
-                            ButtonType OKButton = new ButtonType("OK", ButtonData.OK_DONE);
-
-                            alert.getButtonTypes().setAll(OKButton);
 
-                            alert.showAndWait();
-                        });
-                    }
+                    this.docsFiltered.setPredicate(matches::contains);
                 }
                 catch (Exception exception)
                 {
@@ -305,6 +333,71 @@ public class MainController implements Initializable
         });
     }
 
+    /*
+     * Completes the search text in the background, cancelling any completion still running for older text
+     * Called on the JavaFX thread
+     */
+    private void requestCompletions()
+    {
+        this.cancelCompletions();
+
+        String text = this.searchTextField.getText();
+        long request = this.completionRequest;
+
+        this.pendingCompletion = this.completionExecutor.submit(() ->
+        {
+            List<String> completions = this.dm.complete(text, MAX_COMPLETIONS);
+
+            Platform.runLater(() -> this.showCompletions(request, completions));
+        });
+    }
+
+    /* Cancels any completion requested, so that its results are never shown */
+    private void cancelCompletions()
+    {
+        this.completionDelay.stop();
+        this.completionsMenu.hide();
+
+        // Results of requests before this one are dropped even if they have already been computed
+        ++this.completionRequest;
+
+        if (this.pendingCompletion != null)
+        {
+            this.pendingCompletion.cancel(true);
+            this.pendingCompletion = null;
+        }
+    }
+
+    /* Suggests completions under the search field, unless the text has changed since they were requested */
+    private void showCompletions(long request, List<String> completions)
+    {
+        if (request != this.completionRequest || completions.isEmpty() || !this.searchTextField.isFocused())
+        {
+            return;
+        }
+
+        List<MenuItem> items = new ArrayList<>(completions.size());
+
+        for (String completion : completions)
+        {
+            MenuItem item = new MenuItem(completion);
+
+            item.setOnAction(e ->
+            {
+                this.searchTextField.setText(completion);
+                this.searchTextField.positionCaret(completion.length());
+
+                // The completion chosen is not completed again
+                this.cancelCompletions();
+            });
+
+            items.add(item);
+        }
+
+        this.completionsMenu.getItems().setAll(items);
+        this.completionsMenu.show(this.searchTextField, Side.BOTTOM, 0, 0);
+    }
+
     /* Initialises sorting controls */
     private void initSort()
     {
@@ -460,6 +553,40 @@ public class MainController implements Initializable
 
     /* Handles adding documents to manager and displays a progress bar for search indexing */
     private void addDocsToManager(List<Document> docs)
+    {
+        this.indexWithProgress(pipeline -> pipeline.index(docs));
+    }
+
+    /* Handles adding all files in a directory and its sub-directories to manager, displaying a progress bar */
+    private void addDirToManager(Path dir)
+    {
+        this.indexWithProgress(pipeline ->
+        {
+            try
+            {
+                pipeline.index(dir);
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /*
+     * Checks the tries of documents loaded at startup in the background, displaying a progress bar
+     * Searches only use documents already checked until it is done
+     */
+    public void validateIndexes()
+    {
+        if (this.dm.hasDocumentsToValidate())
+        {
+            this.indexWithProgress(this.dm::validateIndexes);
+        }
+    }
+
+    /* Runs an indexing pipeline on another thread and displays a progress bar with its throughput */
+    private void indexWithProgress(Consumer<IndexingPipeline> indexing)
     {
         // Load indexing view
         FXMLLoader loader = new FXMLLoader(this.getClass().getClassLoader().getResource("indexingView.fxml"));
@@ -480,22 +607,20 @@ public class MainController implements Initializable
 
             Thread thread = new Thread(() ->
             {
-                double progress = 0.0;
-
-                // How much progress the bar should record for every serialised ("indexed") document
-                double step = 1.0 / (double) docs.size();
-
                 root.setCursor(Cursor.WAIT);
 
-                // Serialise documents added
-                for (Document doc : docs)
+                // Extraction, tokenizing, building and serialisation of tries ("indexing") run in parallel stages
+                IndexingPipeline pipeline = new IndexingPipeline(this.dm);
+
+                // Progress is reported on the pipeline threads, so the view is updated on the JavaFX thread
+                pipeline.setProgressListener(progress -> Platform.runLater(() ->
                 {
-                    this.dm.addAndSerialiseDocument(doc);
+                    indexingProgressBar.setProgress(progress.getFraction());
+                    indexingStage.setTitle(String.format("Indexing progress (%d of %d, %.1f documents/s)",
+                            progress.getDone(), progress.getDiscovered(), progress.getDocsPerSecond()));
+                }));
 
-                    indexingProgressBar.setProgress(progress);
-                    // Increment current progress
-                    progress += step;
-                }
+                indexing.accept(pipeline);
 
                 Platform.runLater(() -> root.setCursor(Cursor.DEFAULT));
                 Platform.runLater(indexingStage::close);
@@ -544,19 +669,8 @@ public class MainController implements Initializable
             File selected = dirChooser.showDialog(this.getStage());
             Path dirToAdd = selected.toPath();
 
-            List<Document> docsToAdd = new LinkedList<>();
-
-            try
-            {
-                // Create documents for all files in directories and sub-directories
-                Files.walk(dirToAdd).filter(Files::isRegularFile).forEach(f -> docsToAdd.add(new Document(f.toFile())));
-
-                this.addDocsToManager(docsToAdd);
-            }
-            catch (IOException ex)
-            {
-                ex.printStackTrace();
-            }
+            // Create documents for all files in directories and sub-directories, indexing them as they are found
+            this.addDirToManager(dirToAdd);
         });
     }
 